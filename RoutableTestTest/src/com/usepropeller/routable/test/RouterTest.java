@@ -1,15 +1,51 @@
 package com.usepropeller.routable.test;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
+import com.usepropeller.routable.LatencyHistogram;
+import com.usepropeller.routable.RouteDiff;
+import com.usepropeller.routable.RouteMatch;
+import com.usepropeller.routable.RouteResolver;
+import com.usepropeller.routable.RouteTable;
+import com.usepropeller.routable.RouteTableWriter;
 import com.usepropeller.routable.Router;
+import com.usepropeller.routable.RouterMetricsListener;
+import com.usepropeller.routable.TraceBackend;
+import com.usepropeller.routable.UrlTemplate;
 
 import junit.framework.Assert;
 
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URLEncodedUtils;
+
+import android.app.Activity;
+import android.app.AliasActivity;
+import android.app.ExpandableListActivity;
+import android.app.Fragment;
 import android.app.ListActivity;
+import android.content.Context;
+import android.content.ContextWrapper;
 import android.content.Intent;
 import android.os.Bundle;
 import android.test.AndroidTestCase;
+import android.util.Log;
 
 public class RouterTest extends AndroidTestCase {
 	private boolean _called;
@@ -176,4 +212,1410 @@ public class RouterTest extends AndroidTestCase {
         Intent intent = router.intentFor("/users/4");
         Assert.assertEquals("4", intent.getExtras().getString("user_id"));
     }
+
+    public void test_static_segment_preferred_over_param() {
+        Router router = new Router();
+        router.map("users/:id", ListActivity.class);
+        router.map("users/new", AliasActivity.class);
+
+        Intent intent = router.intentFor(this.getContext(), "users/new");
+        Assert.assertEquals(AliasActivity.class.getName(), intent.getComponent().getClassName());
+        Assert.assertNull(intent.getExtras());
+
+        intent = router.intentFor(this.getContext(), "users/16");
+        Assert.assertEquals(ListActivity.class.getName(), intent.getComponent().getClassName());
+        Assert.assertEquals("16", intent.getExtras().getString("id"));
+    }
+
+    public void test_static_prefix_falls_back_to_param() {
+        Router router = new Router();
+        router.map("users/new/:name", AliasActivity.class);
+        router.map("users/:id", ListActivity.class);
+        router.map("users/:user_id/posts", ExpandableListActivity.class);
+
+        Intent intent = router.intentFor(this.getContext(), "users/new");
+        Assert.assertEquals(ListActivity.class.getName(), intent.getComponent().getClassName());
+        Assert.assertEquals("new", intent.getExtras().getString("id"));
+
+        intent = router.intentFor(this.getContext(), "users/new/posts");
+        Assert.assertEquals(AliasActivity.class.getName(), intent.getComponent().getClassName());
+        Assert.assertEquals("posts", intent.getExtras().getString("name"));
+
+        intent = router.intentFor(this.getContext(), "users/7/posts");
+        Assert.assertEquals(ExpandableListActivity.class.getName(), intent.getComponent().getClassName());
+        Assert.assertEquals("7", intent.getExtras().getString("user_id"));
+    }
+
+    public void test_matches_linear_scan_for_unambiguous_routes() {
+        Map<String, Class<? extends Activity>> routes = new HashMap<String, Class<? extends Activity>>();
+        routes.put("users", ListActivity.class);
+        routes.put("users/:id", AliasActivity.class);
+        routes.put("users/:id/friends", ExpandableListActivity.class);
+        routes.put("groups/:group_id/topics/:topic_id", ListActivity.class);
+        routes.put("/groups/:group_id/members", AliasActivity.class);
+        routes.put("settings/privacy", ExpandableListActivity.class);
+
+        Router router = new Router();
+        for (Map.Entry<String, Class<? extends Activity>> route : routes.entrySet()) {
+            router.map(route.getKey(), route.getValue());
+        }
+
+        String[] urls = { "users", "/users/4", "users/4/friends", "groups/1/topics/2",
+                "groups/1/members", "settings/privacy", "settings/security", "users/4/enemies" };
+        for (String url : urls) {
+            String expectedFormat = null;
+            String[] givenParts = url.replaceFirst("^/", "").split("/");
+            for (String format : routes.keySet()) {
+                String[] routerParts = format.replaceFirst("^/", "").split("/");
+                if (routerParts.length != givenParts.length) {
+                    continue;
+                }
+                boolean matches = true;
+                for (int index = 0; index < routerParts.length; index++) {
+                    if (routerParts[index].charAt(0) != ':' && !routerParts[index].equals(givenParts[index])) {
+                        matches = false;
+                    }
+                }
+                if (matches) {
+                    expectedFormat = format;
+                    break;
+                }
+            }
+
+            Intent intent = null;
+            try {
+                intent = router.intentFor(this.getContext(), url);
+            } catch (Router.RouteNotFoundException e) {
+                Assert.assertNull("Router missed " + url, expectedFormat);
+                continue;
+            }
+            Assert.assertNotNull("Router matched " + url + " but a linear scan did not", expectedFormat);
+            Assert.assertEquals(url, routes.get(expectedFormat).getName(), intent.getComponent().getClassName());
+        }
+    }
+
+    public void test_resolution_cache_is_bounded() {
+        Router router = new Router();
+        router.setResolutionCacheSize(2);
+        router.map("users/:id", ListActivity.class);
+
+        router.intentFor("users/1");
+        router.intentFor("users/2");
+        router.intentFor("users/1");
+        router.intentFor("users/3");
+        router.intentFor("users/1");
+
+        RouteResolver.CacheStats stats = router.getResolutionCacheStats();
+        Assert.assertEquals(2, stats.getSize());
+        Assert.assertEquals(2, stats.getMaxSize());
+        Assert.assertEquals(2, stats.getHitCount());
+        Assert.assertEquals(3, stats.getMissCount());
+        Assert.assertEquals(1, stats.getEvictionCount());
+
+        router.intentFor("users/2");
+        Assert.assertEquals(4, router.getResolutionCacheStats().getMissCount());
+
+        // Resizing keeps the cached entries and doesn't count as evicting them
+        router.setResolutionCacheSize(2);
+        router.setResolutionCacheSize(4);
+        stats = router.getResolutionCacheStats();
+        Assert.assertEquals(2, stats.getSize());
+        Assert.assertEquals(2, stats.getEvictionCount());
+        router.intentFor("users/2");
+        Assert.assertEquals(3, router.getResolutionCacheStats().getHitCount());
+
+        router.setResolutionCacheSize(0);
+        router.intentFor("users/2");
+        Assert.assertEquals(0, router.getResolutionCacheStats().getSize());
+    }
+
+    public void test_map_invalidates_resolution_cache() {
+        Router router = new Router();
+        router.map("users/:id", ListActivity.class);
+        router.intentFor(this.getContext(), "users/new");
+
+        router.map("users/new", AliasActivity.class);
+        Intent intent = router.intentFor(this.getContext(), "users/new");
+        Assert.assertEquals(AliasActivity.class.getName(), intent.getComponent().getClassName());
+    }
+
+    public void test_callback_params_are_immutable() {
+        Router router = new Router(this.getContext());
+        router.map("callback/:id", new Router.RouterCallback() {
+            @Override
+            public void run(Router.RouteContext context) {
+                RouterTest.this._called = true;
+                try {
+                    context.getParams().put("id", "456");
+                    fail("Route params should not be modifiable");
+                } catch (UnsupportedOperationException e) {
+                    // expected
+                }
+            }
+        });
+
+        router.open("callback/123");
+        router.open("callback/123");
+
+        Assert.assertTrue(this._called);
+        Assert.assertEquals(1, router.getResolutionCacheStats().getHitCount());
+    }
+
+    public void test_concurrent_map_and_resolve() throws Exception {
+        final Router router = new Router();
+        router.map("users/:id", ListActivity.class);
+
+        final int writers = 4;
+        final int routesPerWriter = 250;
+        final int readers = Math.max(2, Runtime.getRuntime().availableProcessors());
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+
+        for (int writer = 0; writer < writers; writer++) {
+            final int writerIndex = writer;
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int route = 0; route < routesPerWriter; route++) {
+                            router.map("writer" + writerIndex + "/route" + route + "/:id", AliasActivity.class);
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+        }
+        for (int reader = 0; reader < readers; reader++) {
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        int count = 0;
+                        while (writing.get()) {
+                            Intent intent = router.intentFor("users/" + (count++ % 100));
+                            Assert.assertNotNull(intent.getExtras().getString("id"));
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            });
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        for (int writer = 0; writer < writers; writer++) {
+            threads.get(writer).join();
+        }
+        writing.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertNull(String.valueOf(failure.get()), failure.get());
+        for (int writer = 0; writer < writers; writer++) {
+            for (int route = 0; route < routesPerWriter; route++) {
+                Intent intent = router.intentFor("writer" + writer + "/route" + route + "/" + route);
+                Assert.assertEquals(String.valueOf(route), intent.getExtras().getString("id"));
+            }
+        }
+    }
+
+    public void test_url_parsing_matches_uri_parser() throws Exception {
+        String[] urls = { "users/16", "/users/16", "users/16/", "users/a%20b", "users/a+b", "users/%E2%9C%93",
+                "users/16?key=value", "users/16?a=1&b=2&a=3", "users/16?key=val+1&other=val%202",
+                "users/16?flag", "users/16?empty=", "users/16?a=&b=2", "users/16#fragment", "users/16?key=value#fragment",
+                "users/16?q=%E6%97%A5%E6%9C%AC", "users", "users?page=2", "users//16", "users/16?a%3Db=c%26d" };
+
+        for (String url : urls) {
+            String cleanedUrl = url.startsWith("/") ? url.substring(1) : url;
+            URI uri = URI.create("http://tempuri.org/" + cleanedUrl);
+            String[] segments = uri.getPath().substring(1).split("/");
+            Map<String, String> expected = new HashMap<String, String>();
+            StringBuilder format = new StringBuilder();
+            for (int index = 0; index < segments.length; index++) {
+                format.append(index == 0 ? "" : "/").append(":p").append(index);
+                expected.put("p" + index, segments[index]);
+            }
+            for (NameValuePair pair : URLEncodedUtils.parse(uri, "UTF-8")) {
+                expected.put(pair.getName(), pair.getValue());
+            }
+
+            Router router = new Router();
+            router.map(format.toString(), ListActivity.class);
+            Bundle extras = router.intentFor(url).getExtras();
+
+            Assert.assertEquals(url, expected.keySet(), extras.keySet());
+            for (Map.Entry<String, String> entry : expected.entrySet()) {
+                Assert.assertEquals(url, entry.getValue(), extras.getString(entry.getKey()));
+            }
+        }
+    }
+
+    public void test_url_path_keeps_encoded_slash_in_segment() {
+        Router router = new Router();
+        router.map("files/:name", ListActivity.class);
+
+        Intent intent = router.intentFor("files/a%2Fb?dir=%2Ftmp%2");
+        Assert.assertEquals("a/b", intent.getExtras().getString("name"));
+        Assert.assertEquals("/tmp%2", intent.getExtras().getString("dir"));
+    }
+
+    public void test_route_table() {
+        Router router = new Router();
+        router.map("users/:id", ListActivity.class);
+        router.map(new RouteTable() {
+            @Override
+            public void loadInto(Map<String, Router.RouterOptions> routes) {
+                Router.RouterOptions options = new Router.RouterOptions();
+                options.setOpenClassName("com.example.UserActivity");
+                routes.put("users/:id", options);
+                options = new Router.RouterOptions();
+                options.setOpenClassName("com.example.GroupActivity");
+                routes.put("/groups/:id/topics/:topic_id", options);
+            }
+        });
+
+        Intent intent = router.intentFor(this.getContext(), "users/4");
+        Assert.assertEquals("com.example.UserActivity", intent.getComponent().getClassName());
+        Assert.assertEquals("4", intent.getExtras().getString("id"));
+
+        intent = router.intentFor(this.getContext(), "groups/5/topics/20");
+        Assert.assertEquals("com.example.GroupActivity", intent.getComponent().getClassName());
+        Assert.assertEquals("20", intent.getExtras().getString("topic_id"));
+    }
+
+    public void test_resolver_without_android() {
+        RouteResolver<String> resolver = new RouteResolver<String>();
+        resolver.map("users/:id", "user");
+        resolver.map("/groups/:id/topics/:topic_id", "topic");
+
+        RouteMatch<String> match = resolver.resolve("/groups/5/topics/20?sort=new&id=6");
+        Assert.assertEquals("/groups/:id/topics/:topic_id", match.getFormat());
+        Assert.assertEquals("topic", match.getTarget());
+        Assert.assertEquals("5", match.getPathParams().get("id"));
+        Assert.assertEquals("20", match.getPathParams().get("topic_id"));
+        Assert.assertEquals("new", match.getQueryParams().get("sort"));
+        Assert.assertEquals("6", match.getParams().get("id"));
+
+        Assert.assertNull(resolver.resolve("users"));
+    }
+
+    public void test_resolve() {
+        Router router = new Router();
+        router.map("users/:id", ListActivity.class);
+
+        RouteMatch<Router.RouterOptions> match = router.resolve("users/4");
+        Assert.assertEquals("users/:id", match.getFormat());
+        Assert.assertEquals(ListActivity.class, match.getTarget().getOpenClass());
+        Assert.assertEquals("4", match.getParams().get("id"));
+    }
+
+    public void test_resolve_all() throws Exception {
+        Router router = new Router();
+        router.map("users/:id", ListActivity.class);
+        router.map("groups/:id", AliasActivity.class);
+
+        List<String> urls = new ArrayList<String>();
+        for (int index = 0; index < 5000; index++) {
+            urls.add(index % 3 == 0 ? "users/" + index : index % 3 == 1 ? "groups/" + index : "missing/" + index);
+        }
+
+        List<RouteMatch<Router.RouterOptions>> matches = router.resolveAll(urls);
+        Assert.assertEquals(urls.size(), matches.size());
+        for (int index = 0; index < urls.size(); index++) {
+            RouteMatch<Router.RouterOptions> match = matches.get(index);
+            if (index % 3 == 2) {
+                Assert.assertNull(match);
+                continue;
+            }
+            Assert.assertEquals(String.valueOf(index), match.getParams().get("id"));
+            Assert.assertEquals(index % 3 == 0 ? ListActivity.class : AliasActivity.class,
+                    match.getTarget().getOpenClass());
+        }
+        Assert.assertEquals(0, router.getResolutionCacheStats().getSize());
+    }
+
+    public void test_resolve_all_on_executor() throws Exception {
+        RouteResolver<String> resolver = new RouteResolver<String>();
+        resolver.map("users/:id", "user");
+        final AtomicInteger tasks = new AtomicInteger();
+        Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.incrementAndGet();
+                command.run();
+            }
+        };
+
+        List<RouteMatch<String>> matches = resolver.resolveAll(Arrays.asList("users/1", "users", "users/2"), executor);
+        Assert.assertEquals("1", matches.get(0).getParams().get("id"));
+        Assert.assertNull(matches.get(1));
+        Assert.assertEquals("2", matches.get(2).getParams().get("id"));
+        Assert.assertTrue(tasks.get() > 0);
+    }
+
+    /*
+     * Records the Intents it's asked to start instead of starting them; the test app declares no activities.
+     */
+    private static class RecordingContext extends ContextWrapper {
+        final List<Intent> started = new ArrayList<Intent>();
+
+        RecordingContext(Context base) {
+            super(base);
+        }
+
+        @Override
+        public void startActivity(Intent intent) {
+            this.started.add(intent);
+        }
+
+        @Override
+        public void startActivities(Intent[] intents) {
+            this.started.addAll(Arrays.asList(intents));
+        }
+    }
+
+    public void test_metrics_listener() {
+        final List<String> events = new ArrayList<String>();
+        RecordingContext context = new RecordingContext(this.getContext());
+        Router router = new Router(context);
+        router.setMetricsListener(new RouterMetricsListener() {
+            @Override
+            public void onResolveEnd(String url, String format, boolean cacheHit, long durationNanos) {
+                events.add("resolved " + url + " " + format + (cacheHit ? " hit" : " miss"));
+                Assert.assertTrue(durationNanos >= 0);
+            }
+
+            @Override
+            public void onRouteNotFound(String url, long durationNanos) {
+                events.add("not found " + url);
+            }
+
+            @Override
+            public void onDispatch(String url, String format, boolean callback, long durationNanos) {
+                events.add((callback ? "callback " : "activity ") + format);
+            }
+        });
+        router.map("users/:id", ListActivity.class);
+        router.map("logout", new Router.RouterCallback() {
+            @Override
+            public void run(Router.RouteContext context) {
+            }
+        });
+
+        router.open("users/1");
+        router.open("users/1");
+        router.open("logout");
+        try {
+            router.open("missing");
+        } catch (Router.RouteNotFoundException e) {
+            // expected
+        }
+
+        Assert.assertEquals(Arrays.asList("resolved users/1 users/:id miss", "activity users/:id",
+                "resolved users/1 users/:id hit", "activity users/:id",
+                "resolved logout logout miss", "callback logout", "not found missing"), events);
+        // Each activity dispatch is one Intent handed to the context, and nothing is started for the callback
+        Assert.assertEquals(2, context.started.size());
+        for (Intent intent : context.started) {
+            Assert.assertEquals(ListActivity.class.getName(), intent.getComponent().getClassName());
+            Assert.assertEquals("1", intent.getStringExtra("id"));
+        }
+    }
+
+    public void test_typed_constraints() {
+        Router router = new Router();
+        router.map("users/:id{int}", ListActivity.class);
+        router.map("users/:name{[a-z]+}", AliasActivity.class);
+        router.map("users/:anything", ExpandableListActivity.class);
+        router.map("events/:timestamp{long}/:sort{new|top}", ListActivity.class);
+
+        Intent intent = router.intentFor(this.getContext(), "users/42");
+        Assert.assertEquals(ListActivity.class.getName(), intent.getComponent().getClassName());
+        Assert.assertEquals(42, intent.getExtras().getInt("id"));
+
+        intent = router.intentFor(this.getContext(), "users/clay");
+        Assert.assertEquals(AliasActivity.class.getName(), intent.getComponent().getClassName());
+        Assert.assertEquals("clay", intent.getExtras().getString("name"));
+
+        intent = router.intentFor(this.getContext(), "users/99999999999");
+        Assert.assertEquals(ExpandableListActivity.class.getName(), intent.getComponent().getClassName());
+
+        RouteMatch<Router.RouterOptions> match = router.resolve("events/1380000000000/top?page=2");
+        Assert.assertEquals(Long.valueOf(1380000000000L), match.getTypedParams().get("timestamp"));
+        Assert.assertEquals("1380000000000", match.getParams().get("timestamp"));
+        Assert.assertEquals("top", match.getTypedParams().get("sort"));
+        Assert.assertEquals("2", match.getTypedParams().get("page"));
+
+        try {
+            router.resolve("events/1380000000000/hot");
+            fail("Constraint should have rejected the URL");
+        } catch (Router.RouteNotFoundException e) {
+            // expected
+        }
+    }
+
+    public void test_typed_params_in_callback() {
+        Router router = new Router(this.getContext());
+        router.map("callback/:id{int}", new Router.RouterCallback() {
+            @Override
+            public void run(Router.RouteContext context) {
+                RouterTest.this._called = true;
+                Assert.assertEquals(Integer.valueOf(123), context.getTypedParams().get("id"));
+                Assert.assertEquals("123", context.getParams().get("id"));
+            }
+        });
+
+        router.open("callback/123");
+
+        Assert.assertTrue(this._called);
+
+        Router.RouteContext empty = router.new RouteContext((Map<String, String>) null, null, this.getContext());
+        Assert.assertTrue(empty.getTypedParams().isEmpty());
+    }
+
+    public void test_invalid_constraint() {
+        Router router = new Router();
+        try {
+            router.map("users/:id{int", ListActivity.class);
+            fail("Unterminated constraint should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            router.map("users/:id{[a-z}", ListActivity.class);
+            fail("Invalid regular expression should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    public void test_try_resolve_and_open() {
+        RecordingContext context = new RecordingContext(this.getContext());
+        Router router = new Router(context);
+        router.map("users/:id", ListActivity.class);
+
+        Assert.assertNull(router.tryResolve("groups/5"));
+        Assert.assertFalse(router.tryOpen("groups/5"));
+        Assert.assertTrue(context.started.isEmpty());
+        Assert.assertEquals("5", router.tryResolve("users/5").getParams().get("id"));
+        Assert.assertTrue(router.tryOpen("users/5"));
+        Assert.assertEquals(1, context.started.size());
+        Intent intent = context.started.get(0);
+        Assert.assertEquals(ListActivity.class.getName(), intent.getComponent().getClassName());
+        Assert.assertEquals("5", intent.getStringExtra("id"));
+    }
+
+    public void test_negative_cache() {
+        Router router = new Router();
+        router.map("users/:id", ListActivity.class);
+
+        Assert.assertNull(router.tryResolve("groups/5"));
+        Assert.assertNull(router.tryResolve("groups/5"));
+        Assert.assertEquals(1, router.getNegativeCacheStats().getHitCount());
+        Assert.assertEquals(1, router.getNegativeCacheStats().getSize());
+
+        // Mapping a route forgets the misses it could have changed
+        router.map("groups/:id", ExpandableListActivity.class);
+        Assert.assertEquals(0, router.getNegativeCacheStats().getSize());
+        Assert.assertEquals("groups/:id", router.tryResolve("groups/5").getFormat());
+    }
+
+    private static class QueueExecutor implements Executor {
+        final List<Runnable> queue = new ArrayList<Runnable>();
+
+        @Override
+        public void execute(Runnable command) {
+            this.queue.add(command);
+        }
+
+        void drain() {
+            while (!this.queue.isEmpty()) {
+                this.queue.remove(0).run();
+            }
+        }
+    }
+
+    public void test_open_async() throws Exception {
+        Router router = new Router(this.getContext());
+        QueueExecutor background = new QueueExecutor();
+        QueueExecutor main = new QueueExecutor();
+        router.setAsyncExecutor(background);
+        router.setMainThreadExecutor(main);
+        router.map("callback/:id", new Router.RouterCallback() {
+            @Override
+            public void run(Router.RouteContext context) {
+                RouterTest.this._called = true;
+            }
+        });
+        final AtomicReference<String> opened = new AtomicReference<String>();
+
+        Future<RouteMatch<Router.RouterOptions>> future = router.openAsync("callback/5", null, this.getContext(),
+                new Router.OpenListener() {
+                    @Override
+                    public void onOpen(String url, RouteMatch<Router.RouterOptions> match) {
+                        opened.set(match.getParams().get("id"));
+                    }
+                });
+        Assert.assertFalse(future.isDone());
+
+        // Resolved in the background, dispatched on the main thread
+        background.drain();
+        Assert.assertFalse(this._called);
+        main.drain();
+        Assert.assertTrue(this._called);
+        Assert.assertEquals("callback/:id", future.get().getFormat());
+        Assert.assertEquals("5", opened.get());
+    }
+
+    public void test_open_async_cancel_and_not_found() throws Exception {
+        Router router = new Router(this.getContext());
+        QueueExecutor background = new QueueExecutor();
+        QueueExecutor main = new QueueExecutor();
+        router.setAsyncExecutor(background);
+        router.setMainThreadExecutor(main);
+        router.map("callback", new Router.RouterCallback() {
+            @Override
+            public void run(Router.RouteContext context) {
+                RouterTest.this._called = true;
+            }
+        });
+
+        Future<RouteMatch<Router.RouterOptions>> cancelled = router.openAsync("callback");
+        background.drain();
+        Assert.assertTrue(cancelled.cancel(false));
+        main.drain();
+        Assert.assertFalse(this._called);
+        Assert.assertTrue(cancelled.isDone());
+        try {
+            cancelled.get();
+            fail("A cancelled future has no result");
+        } catch (CancellationException e) {
+            // expected
+        }
+
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        Future<RouteMatch<Router.RouterOptions>> missing = router.openAsync("missing", null, this.getContext(),
+                new Router.OpenListener() {
+                    @Override
+                    public void onError(String url, Throwable e) {
+                        error.set(e);
+                    }
+                });
+        background.drain();
+        main.drain();
+        try {
+            missing.get();
+            fail("Future should have failed");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof Router.RouteNotFoundException);
+        }
+        Assert.assertTrue(error.get() instanceof Router.RouteNotFoundException);
+    }
+
+    public void test_open_async_callback() throws Exception {
+        Router router = new Router(this.getContext());
+        QueueExecutor background = new QueueExecutor();
+        QueueExecutor main = new QueueExecutor();
+        router.setAsyncExecutor(background);
+        router.setMainThreadExecutor(main);
+        final AtomicReference<Router.RouteCompletion> pending = new AtomicReference<Router.RouteCompletion>();
+        router.map("sync/:id{int}", new Router.AsyncRouterCallback() {
+            @Override
+            public void run(Router.RouteContext context, Router.RouteCompletion completion) {
+                Assert.assertEquals(Integer.valueOf(7), context.getTypedParams().get("id"));
+                pending.set(completion);
+            }
+        });
+
+        final List<String> dispatched = new ArrayList<String>();
+        router.setMetricsListener(new RouterMetricsListener() {
+            @Override
+            public void onDispatch(String url, String format, boolean callback, long durationNanos) {
+                dispatched.add(url + " " + callback);
+            }
+        });
+        router.setLatencyTracking(true);
+
+        Future<RouteMatch<Router.RouterOptions>> future = router.openAsync("sync/7");
+        background.drain();
+        Assert.assertTrue(main.queue.isEmpty());
+        Assert.assertFalse(future.isDone());
+        Assert.assertTrue(dispatched.isEmpty());
+
+        // Recorded like a synchronous callback once it completes, and only once
+        pending.get().complete();
+        pending.get().complete();
+        Assert.assertEquals("sync/:id{int}", future.get(1, TimeUnit.SECONDS).getFormat());
+        Assert.assertEquals(Arrays.asList("sync/7 true"), dispatched);
+        Assert.assertEquals(1, router.getLatencyHistograms().get("sync/:id{int}").getCount());
+    }
+
+    public void test_intent_template_invalidated() {
+        Router router = new Router(this.getContext());
+        Map<String, String> defaultParams = new HashMap<String, String>();
+        defaultParams.put("source", "feed");
+        Router.RouterOptions options = new Router.RouterOptions(defaultParams);
+        router.map("users/:id", ListActivity.class, options);
+
+        Intent first = router.intentFor(this.getContext(), "users/1");
+        first.putExtra("source", "changed");
+        Intent second = router.intentFor(this.getContext(), "users/2");
+        Assert.assertEquals("feed", second.getExtras().getString("source"));
+        Assert.assertEquals("2", second.getExtras().getString("id"));
+        Assert.assertNull(second.getExtras().getString("tab"));
+
+        defaultParams = new HashMap<String, String>(defaultParams);
+        defaultParams.put("tab", "posts");
+        options.setDefaultParams(defaultParams);
+        options.setOpenClass(ExpandableListActivity.class);
+        Intent third = router.intentFor(this.getContext(), "users/3");
+        Assert.assertEquals("posts", third.getExtras().getString("tab"));
+        Assert.assertEquals(ExpandableListActivity.class.getName(), third.getComponent().getClassName());
+
+        // Callers with and without a context don't displace each other's template
+        Intent bare = router.intentFor("users/4");
+        Assert.assertNull(bare.getComponent());
+        Assert.assertEquals("posts", bare.getExtras().getString("tab"));
+        Intent withContext = router.intentFor(this.getContext(), "users/5");
+        Assert.assertEquals(ExpandableListActivity.class.getName(), withContext.getComponent().getClassName());
+        Assert.assertNull(router.intentFor("users/6").getComponent());
+    }
+
+    public void test_open_stack() {
+        RecordingContext context = new RecordingContext(this.getContext());
+        Router router = new Router(context);
+        final List<String> opened = new ArrayList<String>();
+        router.map("first", new Router.RouterCallback() {
+            @Override
+            public void run(Router.RouteContext context) {
+                opened.add("first");
+            }
+        });
+        router.map("second/:id", new Router.RouterCallback() {
+            @Override
+            public void run(Router.RouteContext context) {
+                opened.add("second " + context.getParams().get("id"));
+            }
+        });
+        router.map("users/:id", ListActivity.class);
+        router.map("groups/:id", AliasActivity.class);
+        router.setMetricsListener(new RouterMetricsListener() {
+            @Override
+            public void onDispatch(String url, String format, boolean callback, long durationNanos) {
+                if (!callback) {
+                    opened.add("activity " + url);
+                }
+            }
+        });
+
+        try {
+            router.openStack(Arrays.asList("first", "missing"));
+            fail("Stack with an unknown URL should not open");
+        } catch (Router.RouteNotFoundException e) {
+            // expected
+        }
+        Assert.assertTrue(opened.isEmpty());
+        Assert.assertTrue(context.started.isEmpty());
+
+        router.openStack(Arrays.asList("first", "users/1", "second/2", "groups/3"));
+        Assert.assertEquals(Arrays.asList("first", "second 2", "activity users/1", "activity groups/3"), opened);
+        // One batch, bottom of the stack first
+        Assert.assertEquals(2, context.started.size());
+        Assert.assertEquals(ListActivity.class.getName(), context.started.get(0).getComponent().getClassName());
+        Assert.assertEquals("1", context.started.get(0).getStringExtra("id"));
+        Intent top = context.started.get(1);
+        Assert.assertEquals(AliasActivity.class.getName(), top.getComponent().getClassName());
+        Assert.assertEquals("3", top.getStringExtra("id"));
+
+        // As RouterActivity opens links: URLs without a route are left out, and each URL is resolved once
+        opened.clear();
+        context.started.clear();
+        RouteResolver.CacheStats before = router.getResolutionCacheStats();
+        Assert.assertTrue(router.tryOpenStack(Arrays.asList("missing", "users/4"), context));
+        RouteResolver.CacheStats after = router.getResolutionCacheStats();
+        Assert.assertEquals(Arrays.asList("activity users/4"), opened);
+        Assert.assertEquals(2, after.getHitCount() + after.getMissCount() - before.getHitCount() - before.getMissCount());
+        Assert.assertEquals(1, context.started.size());
+        Assert.assertEquals("4", context.started.get(0).getStringExtra("id"));
+
+        context.started.clear();
+        Assert.assertFalse(router.tryOpenStack(Arrays.asList("missing", "also/missing"), context));
+        Assert.assertTrue(context.started.isEmpty());
+    }
+
+    public void test_scheme_and_host_routes() {
+        RouteResolver<String> resolver = new RouteResolver<String>();
+        resolver.map("users/:id", "default");
+        resolver.map("myapp://users/:id", "myapp");
+        resolver.map("https://shop.example.com/products/:id", "shop");
+        resolver.map("https://shop.example.com/", "shop home");
+
+        Assert.assertEquals("default", resolver.resolve("users/1").getTarget());
+        Assert.assertEquals("myapp", resolver.resolve("myapp://users/1").getTarget());
+        Assert.assertEquals("myapp", resolver.resolve("MyApp://users/1").getTarget());
+        Assert.assertEquals("myapp://users/:id", resolver.resolve("myapp://users/1").getFormat());
+
+        RouteMatch<String> match = resolver.resolve("https://Shop.Example.com/products/42?ref=mail");
+        Assert.assertEquals("shop", match.getTarget());
+        Assert.assertEquals("42", match.getParams().get("id"));
+        Assert.assertEquals("mail", match.getParams().get("ref"));
+        Assert.assertEquals("shop home", resolver.resolve("https://shop.example.com").getTarget());
+
+        // Only the host's own routes are matched
+        Assert.assertNull(resolver.resolve("https://shop.example.com/users/1"));
+        Assert.assertNull(resolver.resolve("http://shop.example.com/products/42"));
+
+        // Schemes without routes fall back to the routes without a scheme
+        Assert.assertEquals("default", resolver.resolve("otherapp://users/1").getTarget());
+    }
+
+    public void test_binary_route_table() throws Exception {
+        Map<String, String> defaultParams = new HashMap<String, String>();
+        defaultParams.put("source", "table");
+        byte[] table = new RouteTableWriter()
+                .map("users/:id{int}", ListActivity.class.getName())
+                .map("users/:id/posts", ExpandableListActivity.class.getName(), defaultParams)
+                .map("users/new", AliasActivity.class.getName())
+                .map("myapp://settings/:tab{general|privacy}", ListActivity.class.getName())
+                .toByteArray();
+        Router router = new Router(this.getContext());
+        router.map(ByteBuffer.wrap(table));
+
+        Intent intent = router.intentFor(this.getContext(), "users/16");
+        Assert.assertEquals(ListActivity.class.getName(), intent.getComponent().getClassName());
+        Assert.assertEquals(16, intent.getExtras().getInt("id"));
+        intent = router.intentFor(this.getContext(), "users/new");
+        Assert.assertEquals(AliasActivity.class.getName(), intent.getComponent().getClassName());
+        intent = router.intentFor(this.getContext(), "users/abc/posts");
+        Assert.assertEquals(ExpandableListActivity.class.getName(), intent.getComponent().getClassName());
+        Assert.assertEquals("table", intent.getExtras().getString("source"));
+        Assert.assertEquals("privacy", router.resolve("myapp://settings/privacy").getParams().get("tab"));
+        Assert.assertNull(router.tryResolve("myapp://settings/other"));
+        Assert.assertNull(router.tryResolve("users"));
+
+        // Routes mapped later are added on top of the table
+        router.map("users/:id/followers", AliasActivity.class);
+        Assert.assertEquals("users/:id/followers", router.resolve("users/16/followers").getFormat());
+        Assert.assertEquals("users/:id{int}", router.resolve("users/16").getFormat());
+
+        File file = File.createTempFile("routes", ".bin");
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            out.write(table);
+            out.close();
+            Router mapped = new Router(this.getContext());
+            mapped.map(file);
+            Assert.assertEquals("users/new", mapped.resolve("users/new").getFormat());
+        } finally {
+            file.delete();
+        }
+
+        try {
+            new Router().map(ByteBuffer.wrap(new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16 }));
+            fail("Buffer without a route table should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        // A table can't hold null default params, so the writer rejects them when they're mapped
+        RouteTableWriter writer = new RouteTableWriter();
+        defaultParams.put("referrer", null);
+        try {
+            writer.map("users/:id", ListActivity.class.getName(), defaultParams);
+            fail("Null default param value should be rejected");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("users/:id"));
+        }
+        defaultParams.remove("referrer");
+        defaultParams.put(null, "table");
+        try {
+            writer.map("users/:id", ListActivity.class.getName(), defaultParams);
+            fail("Null default param name should be rejected");
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains("users/:id"));
+        }
+        Router rejected = new Router();
+        rejected.map(ByteBuffer.wrap(writer.toByteArray()));
+        Assert.assertNull(rejected.tryResolve("users/1"));
+    }
+
+    public void test_update_routes() {
+        RouteResolver<String> resolver = new RouteResolver<String>();
+        resolver.map("users/:id", "user");
+        resolver.map("groups/:id", "group");
+        resolver.map("campaigns/winter", "winter");
+        resolver.map("myapp://settings", "settings");
+
+        resolver.update(new RouteDiff<String>()
+                .map("campaigns/spring", "spring")
+                .map("groups/:id", "new group")
+                .unmap("campaigns/winter")
+                .unmap("myapp://settings"));
+
+        Assert.assertEquals("spring", resolver.resolve("campaigns/spring").getTarget());
+        Assert.assertEquals("new group", resolver.resolve("groups/1").getTarget());
+        Assert.assertEquals("user", resolver.resolve("users/1").getTarget());
+        Assert.assertNull(resolver.resolve("campaigns/winter"));
+        // Without routes of its own, the scheme falls back to the routes without one
+        Assert.assertNull(resolver.resolve("myapp://settings"));
+        Assert.assertEquals("user", resolver.resolve("myapp://users/1").getTarget());
+    }
+
+    public void test_update_invalidates_only_affected_urls() {
+        RouteResolver<String> resolver = new RouteResolver<String>();
+        resolver.map("users/:id", "user");
+        resolver.map("groups/:id", "group");
+        RouteMatch<String> before = resolver.resolve("users/1");
+        resolver.resolve("users/new");
+        resolver.resolve("groups/1");
+        Assert.assertNull(resolver.resolve("campaigns/spring"));
+        Assert.assertEquals(3, resolver.getCacheStats().getSize());
+
+        resolver.update(new RouteDiff<String>()
+                .map("users/new", "new user")
+                .map("campaigns/spring", "spring")
+                .unmap("groups/:id"));
+
+        // Only "users/1" can't have changed
+        Assert.assertEquals(1, resolver.getCacheStats().getSize());
+        Assert.assertEquals(0, resolver.getNegativeCacheStats().getSize());
+        long hits = resolver.getCacheStats().getHitCount();
+        RouteMatch<String> after = resolver.resolve("users/1");
+        Assert.assertEquals("user", after.getTarget());
+        Assert.assertEquals(hits + 1, resolver.getCacheStats().getHitCount());
+        // The kept entry is a copy for the new table; matches already handed out are never changed
+        Assert.assertNotSame(before, after);
+        Assert.assertEquals(before.getParams(), after.getParams());
+
+        Assert.assertEquals("new user", resolver.resolve("users/new").getTarget());
+        Assert.assertEquals("spring", resolver.resolve("campaigns/spring").getTarget());
+        Assert.assertNull(resolver.resolve("groups/1"));
+    }
+
+    public void test_profile_warm_up() throws Exception {
+        Router router = new Router(new RecordingContext(this.getContext()));
+        router.setProfileSize(2);
+        router.map("callback/:id", new Router.RouterCallback() {
+            @Override
+            public void run(Router.RouteContext context) {
+            }
+        });
+        router.map("users/:id", ListActivity.class);
+        router.open("users/1");
+        router.open("callback/1");
+        router.open("users/1");
+        router.open("callback/2");
+        router.open("users/1");
+        router.open("callback/1");
+        Assert.assertEquals(Arrays.asList("users/1", "callback/1"), router.getProfile());
+        router.saveProfile();
+
+        // The next start: the profiled URLs are resolved, and their Intent templates built, before they are opened
+        Router cold = new Router(this.getContext());
+        Router warm = new Router(this.getContext());
+        Executor inline = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        warm.setAsyncExecutor(inline);
+        final Map<String, Boolean> firstResolveHit = new HashMap<String, Boolean>();
+        RouterMetricsListener firstResolves = new RouterMetricsListener() {
+            @Override
+            public void onResolveEnd(String url, String format, boolean cacheHit, long durationNanos) {
+                if (!firstResolveHit.containsKey(url)) {
+                    firstResolveHit.put(url, cacheHit);
+                }
+            }
+        };
+        Map<String, String> coldDefaults = new HashMap<String, String>();
+        Map<String, String> warmDefaults = new HashMap<String, String>();
+        for (Router started : Arrays.asList(cold, warm)) {
+            for (int route = 0; route < 500; route++) {
+                started.map("section" + route + "/:id", ListActivity.class);
+            }
+            started.map("callback/:id", new Router.RouterCallback() {
+                @Override
+                public void run(Router.RouteContext context) {
+                }
+            });
+            Map<String, String> defaultParams = started == warm ? warmDefaults : coldDefaults;
+            defaultParams.put("source", "startup");
+            started.map("users/:id", ListActivity.class, new Router.RouterOptions(defaultParams));
+            started.setMetricsListener(firstResolves);
+        }
+        Assert.assertEquals(Integer.valueOf(2), warm.warmUpFromProfile().get());
+        Assert.assertTrue(firstResolveHit.isEmpty());
+
+        // A template holds the default params as they were when it was built, so an edit made after
+        // warm-up only shows up on the router that hasn't built its template yet
+        coldDefaults.put("source", "changed");
+        warmDefaults.put("source", "changed");
+        Intent warmIntent = warm.intentFor(this.getContext(), "users/1");
+        Assert.assertEquals(Boolean.TRUE, firstResolveHit.get("users/1"));
+        Assert.assertEquals("startup", warmIntent.getStringExtra("source"));
+        Assert.assertEquals(ListActivity.class.getName(), warmIntent.getComponent().getClassName());
+        warm.open("callback/1");
+        Assert.assertEquals(Boolean.TRUE, firstResolveHit.get("callback/1"));
+
+        firstResolveHit.clear();
+        Assert.assertEquals("changed", cold.intentFor(this.getContext(), "users/1").getStringExtra("source"));
+        cold.open("callback/1");
+        Assert.assertEquals(Boolean.FALSE, firstResolveHit.get("users/1"));
+        Assert.assertEquals(Boolean.FALSE, firstResolveHit.get("callback/1"));
+        Assert.assertEquals(0, cold.getResolutionCacheStats().getHitCount());
+        Assert.assertEquals(2, warm.getResolutionCacheStats().getHitCount());
+    }
+
+    public void test_param_views() {
+        Router router = new Router(this.getContext());
+        router.map("users/:id{int}/posts/:sort", ListActivity.class);
+        RouteMatch<Router.RouterOptions> match = router.resolve("users/42/posts/new?sort=top&page=1&page=2&flag");
+
+        Assert.assertEquals(2, match.getPathParams().size());
+        Assert.assertEquals("new", match.getPathParams().get("sort"));
+        Assert.assertEquals(3, match.getQueryParams().size());
+        Assert.assertEquals("2", match.getQueryParams().get("page"));
+        Assert.assertTrue(match.getQueryParams().containsKey("flag"));
+        Assert.assertNull(match.getQueryParams().get("flag"));
+
+        Map<String, String> expected = new HashMap<String, String>();
+        expected.put("id", "42");
+        expected.put("sort", "top");
+        expected.put("page", "2");
+        expected.put("flag", null);
+        Assert.assertEquals(expected, match.getParams());
+        Assert.assertEquals(expected.hashCode(), match.getParams().hashCode());
+
+        Assert.assertEquals(Integer.valueOf(42), match.getTypedParams().get("id"));
+        Assert.assertEquals("top", match.getTypedParams().get("sort"));
+        Assert.assertEquals(4, match.getTypedParams().size());
+
+        try {
+            match.getParams().put("id", "43");
+            Assert.fail("Params should be read-only");
+        } catch (UnsupportedOperationException e) {
+            // Expected
+        }
+
+        Intent intent = router.intentFor("users/42/posts/new?sort=top&page=1&page=2");
+        Assert.assertEquals(42, intent.getIntExtra("id", 0));
+        Assert.assertEquals("top", intent.getStringExtra("sort"));
+        Assert.assertEquals("2", intent.getStringExtra("page"));
+    }
+
+    public void test_query_params_decoded_on_read() {
+        Router router = new Router(this.getContext());
+        router.map("search/:q", ListActivity.class);
+        RouteMatch<Router.RouterOptions> match = router.resolve(
+                "search/a?q=b%20c&first+name=J%C3%BCrgen&q=d+e&q%3Dx=1&empty=&bare&bad=%zz#q=fragment");
+
+        Map<String, String> query = match.getQueryParams();
+        Assert.assertEquals("d e", query.get("q"));
+        Assert.assertEquals("J\u00fcrgen", query.get("first name"));
+        Assert.assertEquals("1", query.get("q=x"));
+        Assert.assertTrue(query.containsKey("empty"));
+        Assert.assertNull(query.get("empty"));
+        Assert.assertTrue(query.containsKey("bare"));
+        Assert.assertNull(query.get("bare"));
+        Assert.assertEquals("%zz", query.get("bad"));
+        Assert.assertFalse(query.containsKey("first+name"));
+        Assert.assertNull(query.get(42));
+        Assert.assertEquals(6, query.size());
+
+        // A query param replaces the path param; the fragment is never part of the query
+        Assert.assertEquals("d e", match.getParams().get("q"));
+        Assert.assertEquals(6, match.getParams().size());
+        Assert.assertEquals("d e", router.intentFor("search/a?q=b%20c&q=d+e").getStringExtra("q"));
+        Assert.assertEquals("a", router.resolve("search/a#q=b").getParams().get("q"));
+        Assert.assertTrue(router.resolve("search/a?").getQueryParams().isEmpty());
+
+        // Lenient where URLEncodedUtils threw or made up a param with an empty name
+        query = router.resolve("search/a?&x=1=2&&y=%zz&").getQueryParams();
+        Assert.assertEquals("1=2", query.get("x"));
+        Assert.assertEquals("%zz", query.get("y"));
+        Assert.assertFalse(query.containsKey(""));
+        Assert.assertEquals(2, query.size());
+    }
+
+    public static class UserFragment extends Fragment {
+    }
+
+    public void test_fragment_routes() {
+        RecordingContext context = new RecordingContext(this.getContext());
+        Router router = new Router(context);
+        Map<String, String> defaults = new HashMap<String, String>();
+        defaults.put("tab", "posts");
+        Router.RouterOptions options = new Router.RouterOptions(defaults);
+        options.setFragmentClass(UserFragment.class);
+        router.map("users/:id{int}", ListActivity.class, options);
+        router.mapFragment("profile", UserFragment.class, null);
+
+        Bundle arguments = router.argumentsFor("users/42?ref=feed");
+        Assert.assertEquals(42, arguments.getInt("id"));
+        Assert.assertEquals("feed", arguments.getString("ref"));
+        Assert.assertEquals("posts", arguments.getString("tab"));
+        // Same precedence as the Intent's extras: the URL's params replace the defaults
+        Assert.assertEquals("likes", router.argumentsFor("users/42?tab=likes").getString("tab"));
+        Assert.assertEquals(router.intentFor("users/42?tab=likes").getExtras().keySet(),
+                router.argumentsFor("users/42?tab=likes").keySet());
+
+        // Without a FragmentHost, the route's Activity is started instead
+        final List<String> dispatched = new ArrayList<String>();
+        router.setMetricsListener(new RouterMetricsListener() {
+            @Override
+            public void onDispatch(String url, String format, boolean callback, long durationNanos) {
+                dispatched.add(url);
+            }
+        });
+        router.open("users/42");
+        Assert.assertEquals(Arrays.asList("users/42"), dispatched);
+        Assert.assertEquals(1, context.started.size());
+        Intent intent = context.started.get(0);
+        Assert.assertEquals(ListActivity.class.getName(), intent.getComponent().getClassName());
+        // A fragment gets exactly the extras its Activity would
+        Bundle extras = intent.getExtras();
+        arguments = router.argumentsFor("users/42");
+        Assert.assertEquals(arguments.keySet(), extras.keySet());
+        for (String key : arguments.keySet()) {
+            Assert.assertEquals(key, arguments.get(key), extras.get(key));
+        }
+
+        try {
+            router.open("profile");
+            Assert.fail("A fragment route without an open class can't be opened outside a host");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+
+    public void test_duplicate_open_window() {
+        Router router = new Router(this.getContext());
+        final long[] now = new long[] { 1000 };
+        router.setClock(new Router.Clock() {
+            @Override
+            public long uptimeMillis() {
+                return now[0];
+            }
+        });
+        final List<String> opened = new ArrayList<String>();
+        router.map("users/:id", new Router.RouterCallback() {
+            @Override
+            public void run(Router.RouteContext context) {
+                opened.add(context.getParams().get("id"));
+            }
+        });
+        final List<String> dropped = new ArrayList<String>();
+        router.setMetricsListener(new RouterMetricsListener() {
+            @Override
+            public void onDuplicateOpen(String url) {
+                dropped.add(url);
+            }
+        });
+
+        // Off by default
+        router.open("users/1");
+        router.open("users/1");
+        Assert.assertEquals(Arrays.asList("1", "1"), opened);
+
+        opened.clear();
+        router.setDuplicateOpenWindow(500);
+        Assert.assertEquals(500, router.getDuplicateOpenWindow());
+        router.open("users/1");
+        now[0] += 100;
+        router.open("users/1");
+        Assert.assertFalse(router.tryOpen("users/1"));
+        router.open("users/2");
+        now[0] += 400;
+        router.open("users/1");
+        Assert.assertEquals(Arrays.asList("1", "2", "1"), opened);
+        Assert.assertEquals(Arrays.asList("users/1", "users/1"), dropped);
+
+        // A URL that failed to open isn't held back
+        Assert.assertFalse(router.tryOpen("missing"));
+        Assert.assertFalse(router.tryOpen("missing"));
+
+        // Nor is one an interceptor cancelled, so it can be retried straight away
+        final AtomicBoolean signedIn = new AtomicBoolean(false);
+        Router.Interceptor gate = new Router.Interceptor() {
+            @Override
+            public Router.Interception intercept(String url, RouteMatch<Router.RouterOptions> match, Bundle extras,
+                    Context context) {
+                return signedIn.get() ? Router.Interception.CONTINUE : Router.Interception.CANCEL;
+            }
+        };
+        router.addInterceptor(gate);
+        opened.clear();
+        router.open("users/6");
+        signedIn.set(true);
+        router.open("users/6");
+        Assert.assertEquals(Arrays.asList("6"), opened);
+        router.removeInterceptor(gate);
+
+        opened.clear();
+        router.setDuplicateOpenWindow(500, true);
+        router.open("users/3");
+        Assert.assertFalse(router.tryOpen("users/4"));
+        now[0] += 500;
+        router.open("users/5");
+        Assert.assertEquals(Arrays.asList("3", "5"), opened);
+    }
+
+    public void test_navigation_tracing() {
+        Router router = new Router(this.getContext());
+        final long[] now = new long[] { 1000 };
+        router.setClock(new Router.Clock() {
+            @Override
+            public long uptimeMillis() {
+                return now[0];
+            }
+        });
+        final List<String> sections = new ArrayList<String>();
+        router.setTraceBackend(new TraceBackend() {
+            @Override
+            public void beginSection(String name) {
+                sections.add(name);
+            }
+
+            @Override
+            public void endSection() {
+                sections.add("end");
+            }
+        });
+        router.map("slow", new Router.RouterCallback() {
+            @Override
+            public void run(Router.RouteContext context) {
+                now[0] += 30;
+            }
+        });
+        router.map("users/:id", ListActivity.class);
+
+        router.open("slow");
+        Assert.assertEquals(Arrays.asList("Routable.open", "Routable.resolve", "end", "Routable.callback", "end", "end"),
+                sections);
+        Assert.assertTrue(router.getLatencyHistograms().isEmpty());
+
+        router.setLatencyTracking(true);
+        router.open("slow");
+        Intent intent = router.intentFor("users/1");
+        Assert.assertFalse(intent.hasExtra(Router.EXTRA_NAVIGATION_ID));
+
+        final List<Bundle> launched = new ArrayList<Bundle>();
+        ContextWrapper context = new ContextWrapper(this.getContext()) {
+            @Override
+            public void startActivity(Intent intent) {
+                launched.add(intent.getExtras());
+            }
+        };
+        router.open("users/1", context);
+        router.open("users/2", context);
+        now[0] += 300;
+        Assert.assertTrue(router.reportFirstFrame(launched.get(0)));
+        Assert.assertFalse(router.reportFirstFrame(launched.get(0)));
+        Assert.assertFalse(router.reportFirstFrame(null));
+
+        Map<String, LatencyHistogram> histograms = router.getLatencyHistograms();
+        Assert.assertEquals(1, histograms.get("slow").getCount());
+        Assert.assertEquals(30, histograms.get("slow").getMaxMillis());
+        LatencyHistogram users = histograms.get("users/:id");
+        Assert.assertEquals(1, users.getCount());
+        Assert.assertEquals(300, users.getPercentileMillis(50));
+        Assert.assertEquals(1, users.getCountInBucket(9));
+        Assert.assertEquals(512, users.getBucketUpperBoundMillis(9));
+
+        router.resetLatencyHistograms();
+        Assert.assertTrue(router.getLatencyHistograms().isEmpty());
+        Assert.assertFalse(router.reportFirstFrame(launched.get(1)));
+    }
+
+    public void test_interceptors() {
+        Router router = new Router(this.getContext());
+        final List<String> opened = new ArrayList<String>();
+        Router.RouterCallback record = new Router.RouterCallback() {
+            @Override
+            public void run(Router.RouteContext context) {
+                opened.add(context.getParams().toString());
+            }
+        };
+        final AtomicBoolean signedIn = new AtomicBoolean(false);
+        Router.RouterOptions account = new Router.RouterOptions();
+        account.setCallback(record);
+        account.addInterceptor(new Router.Interceptor() {
+            @Override
+            public Router.Interception intercept(String url, RouteMatch<Router.RouterOptions> match, Bundle extras,
+                    Context context) {
+                return signedIn.get() ? Router.Interception.CONTINUE : Router.Interception.redirect("login?next=" + url);
+            }
+        });
+        router.map("account/:section", null, account);
+        router.map("login", record);
+        router.map("feed", record);
+        router.map("disabled", record);
+
+        final List<String> seen = new ArrayList<String>();
+        Router.Interceptor flags = new Router.Interceptor() {
+            @Override
+            public Router.Interception intercept(String url, RouteMatch<Router.RouterOptions> match, Bundle extras,
+                    Context context) {
+                seen.add(url);
+                if (match.getFormat().equals("disabled")) {
+                    return Router.Interception.CANCEL;
+                }
+                if (url.equals("feed")) {
+                    return Router.Interception.rewrite("feed?variant=b");
+                }
+                return Router.Interception.CONTINUE;
+            }
+        };
+        router.addInterceptor(flags);
+
+        router.open("account/settings");
+        router.open("feed");
+        // A cancelled open isn't reported as opened
+        Assert.assertFalse(router.tryOpen("disabled"));
+        Assert.assertEquals(Arrays.asList("{next=account/settings}", "{variant=b}"), opened);
+        // The redirect runs the global interceptors again for the new URL
+        Assert.assertEquals(Arrays.asList("account/settings", "login?next=account/settings", "feed", "disabled"), seen);
+
+        opened.clear();
+        signedIn.set(true);
+        router.openStack(Arrays.asList("feed", "disabled", "account/settings"));
+        Assert.assertEquals(Arrays.asList("{variant=b}", "{section=settings}"), opened);
+
+        router.removeInterceptor(flags);
+        Assert.assertTrue(router.getInterceptors().isEmpty());
+        opened.clear();
+        router.open("disabled");
+        Assert.assertEquals(Arrays.asList("{}"), opened);
+
+        // A rewrite onto another route runs that route's interceptors, and not the rest of the first route's
+        signedIn.set(false);
+        opened.clear();
+        final List<String> promoSeen = new ArrayList<String>();
+        Router.RouterOptions promo = new Router.RouterOptions();
+        promo.setCallback(record);
+        promo.addInterceptor(new Router.Interceptor() {
+            @Override
+            public Router.Interception intercept(String url, RouteMatch<Router.RouterOptions> match, Bundle extras,
+                    Context context) {
+                promoSeen.add(match.getFormat());
+                return Router.Interception.CONTINUE;
+            }
+        });
+        router.map("promo", null, promo);
+        Router.Interceptor toAccount = new Router.Interceptor() {
+            @Override
+            public Router.Interception intercept(String url, RouteMatch<Router.RouterOptions> match, Bundle extras,
+                    Context context) {
+                return url.equals("promo") ? Router.Interception.rewrite("account/settings")
+                        : Router.Interception.CONTINUE;
+            }
+        };
+        router.addInterceptor(toAccount);
+        router.open("promo");
+        Assert.assertEquals(Arrays.asList("{next=account/settings}"), opened);
+        Assert.assertTrue(promoSeen.isEmpty());
+        router.removeInterceptor(toAccount);
+
+        // A rewrite or redirect to a URL without a route opens nothing
+        Router.Interceptor nowhere = new Router.Interceptor() {
+            @Override
+            public Router.Interception intercept(String url, RouteMatch<Router.RouterOptions> match, Bundle extras,
+                    Context context) {
+                return url.equals("feed") ? Router.Interception.redirect("nowhere") : Router.Interception.CONTINUE;
+            }
+        };
+        router.addInterceptor(nowhere);
+        opened.clear();
+        Assert.assertFalse(router.tryOpen("feed"));
+        Assert.assertTrue(router.tryOpenStack(Arrays.asList("feed", "login"), this.getContext()));
+        Assert.assertEquals(Arrays.asList("{}"), opened);
+        try {
+            router.open("feed");
+            Assert.fail("A redirect to a URL without a route should throw from open");
+        } catch (Router.RouteNotFoundException e) {
+            // Expected
+        }
+        router.removeInterceptor(nowhere);
+
+        router.addInterceptor(new Router.Interceptor() {
+            @Override
+            public Router.Interception intercept(String url, RouteMatch<Router.RouterOptions> match, Bundle extras,
+                    Context context) {
+                return Router.Interception.redirect("feed");
+            }
+        });
+        try {
+            router.open("feed");
+            Assert.fail("A redirect loop should give up");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+    }
+
+    public void test_url_for() {
+        Router router = new Router();
+        router.map("users/:id{int}", ListActivity.class);
+        router.map("/groups/:id/topics/:sort{new|top}", ListActivity.class);
+        router.map("myapp://search/:query", ListActivity.class);
+
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put("id", 16);
+        Assert.assertEquals("users/16", router.urlFor("users/:id{int}", params));
+        Assert.assertEquals("16", router.resolve(router.urlFor("users/:id{int}", params)).getPathParams().get("id"));
+
+        params.clear();
+        params.put("query", "a/b c\u00e9");
+        String url = router.urlFor("myapp://search/:query", params);
+        Assert.assertEquals("myapp://search/a%2Fb%20c%C3%A9", url);
+        Assert.assertEquals("a/b c\u00e9", router.resolve(url).getPathParams().get("query"));
+
+        UrlTemplate.Builder builder = router.urlTemplate("/groups/:id/topics/:sort{new|top}").builder();
+        Assert.assertEquals("/groups/5/topics/new?ref=feed&debug",
+                builder.set("id", 5).set("sort", "new").set("ref", "feed").set("debug", null).build());
+        Assert.assertEquals("/groups/6/topics/top", builder.set("id", 6).set("sort", "top").build());
+        try {
+            builder.set("id", 7).set("sort", "old").build();
+            Assert.fail("A value outside its constraint should be rejected");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        try {
+            builder.set("sort", "new").build();
+            Assert.fail("A missing param should be rejected");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+
+        List<Map<String, Object>> many = new ArrayList<Map<String, Object>>();
+        for (int id = 1; id <= 3; id++) {
+            Map<String, Object> userParams = new HashMap<String, Object>();
+            userParams.put("id", id);
+            many.add(userParams);
+        }
+        Assert.assertEquals(Arrays.asList("users/1", "users/2", "users/3"), router.urlsFor("users/:id{int}", many));
+
+        try {
+            router.urlFor("posts/:id", params);
+            Assert.fail("An unmapped format should throw");
+        } catch (Router.RouteNotFoundException e) {
+            // Expected
+        }
+
+        RouteResolver<String> resolver = new RouteResolver<String>();
+        resolver.map("users/:id", "user");
+        Assert.assertNotNull(resolver.urlTemplate("users/:id"));
+        resolver.update(new RouteDiff<String>().unmap("users/:id"));
+        Assert.assertNull(resolver.urlTemplate("users/:id"));
+    }
 }
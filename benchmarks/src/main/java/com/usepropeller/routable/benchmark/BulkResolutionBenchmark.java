@@ -0,0 +1,66 @@
+package com.usepropeller.routable.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.usepropeller.routable.RouteMatch;
+import com.usepropeller.routable.Router;
+import com.usepropeller.routable.Router.RouterOptions;
+
+/**
+ * Measures {@link Router#resolveAll} over a 200,000 URL catalog with 1 to 8 worker threads;
+ * time per catalog should fall close to linearly with the thread count, up to the core count.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BulkResolutionBenchmark {
+	private static final int CATALOG_SIZE = 200000;
+
+	@Param({ "1", "2", "4", "8" })
+	public int threads;
+
+	private Router _router;
+	private List<String> _catalog;
+	private ExecutorService _executor;
+
+	@Setup
+	public void setUp() {
+		this._router = RouteTables.router(1000);
+		this._catalog = new ArrayList<String>(CATALOG_SIZE);
+		for (int index = 0; index < CATALOG_SIZE; index++) {
+			int route = (int) ((index * 2654435761L) % 1000);
+			this._catalog.add(index % 10 == 0 ? "missing/" + index : RouteTables.url(route, index));
+		}
+		this._executor = Executors.newFixedThreadPool(this.threads);
+	}
+
+	@TearDown
+	public void tearDown() {
+		this._executor.shutdown();
+	}
+
+	@Benchmark
+	public List<RouteMatch<RouterOptions>> resolveAll() throws InterruptedException {
+		return this._router.resolveAll(this._catalog, this._executor);
+	}
+}
@@ -0,0 +1,66 @@
+package com.usepropeller.routable.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import android.content.Intent;
+
+import com.usepropeller.routable.Router;
+
+/**
+ * Measures the resolution cache when the working set is larger than the cache, so that
+ * most lookups miss and evict, and when several threads share one router.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheBenchmark {
+	@Param({ "64", "256", "1024" })
+	public int cacheSize;
+
+	private Router _router;
+	private String[] _urls;
+
+	@State(Scope.Thread)
+	public static class Cursor {
+		int index;
+
+		int next() {
+			this.index = (this.index + 1) & (RouteTables.URL_COUNT - 1);
+			return this.index;
+		}
+	}
+
+	@Setup
+	public void setUp() {
+		this._router = RouteTables.router(1000);
+		this._router.setResolutionCacheSize(this.cacheSize);
+		this._urls = RouteTables.urls(1000);
+	}
+
+	@Benchmark
+	public Intent churn(Cursor cursor) {
+		return this._router.intentFor(this._urls[cursor.next()]);
+	}
+
+	@Benchmark
+	@Threads(4)
+	public Intent sharedChurn(Cursor cursor) {
+		return this._router.intentFor(this._urls[cursor.next()]);
+	}
+}
@@ -0,0 +1,51 @@
+package com.usepropeller.routable.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import android.content.Context;
+import android.content.Intent;
+
+import com.usepropeller.routable.Router;
+
+/**
+ * Measures building Intents for already-cached URLs, with and without default params,
+ * so that the cost of {@link Router#intentFor(Context, String)} itself is isolated from matching.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IntentBenchmark {
+	private Router _router;
+	private Context _context;
+
+	@Setup
+	public void setUp() {
+		this._context = new Context();
+		this._router = RouteTables.router(16);
+		this._router.setContext(this._context);
+	}
+
+	@Benchmark
+	public Intent withDefaultParams() {
+		return this._router.intentFor(this._context, RouteTables.url(0, 1));
+	}
+
+	@Benchmark
+	public Intent withUrlParams() {
+		return this._router.intentFor(this._context, RouteTables.url(2, 1));
+	}
+}
@@ -0,0 +1,88 @@
+package com.usepropeller.routable.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import android.content.Intent;
+
+import com.usepropeller.routable.Router;
+
+/**
+ * Measures {@link Router#intentFor(String)} as route tables grow.
+ *
+ * Cold lookups run with the resolution cache disabled so that every call parses the URL and
+ * matches it against the routes; warm lookups repeat URLs that fit in the cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResolutionBenchmark {
+	@Param({ "10", "100", "1000", "10000" })
+	public int routeCount;
+
+	private Router _coldRouter;
+	private Router _warmRouter;
+	private String[] _urls;
+	private String[] _queryUrls;
+	private String[] _missingUrls;
+	private int _index;
+
+	@Setup
+	public void setUp() {
+		this._coldRouter = RouteTables.router(this.routeCount);
+		this._coldRouter.setResolutionCacheSize(0);
+		this._warmRouter = RouteTables.router(this.routeCount);
+		this._warmRouter.setResolutionCacheSize(RouteTables.URL_COUNT * 2);
+
+		this._urls = RouteTables.urls(this.routeCount);
+		this._queryUrls = RouteTables.queryUrls(this.routeCount);
+		this._missingUrls = RouteTables.missingUrls(this.routeCount);
+		for (String url : this._urls) {
+			this._warmRouter.intentFor(url);
+		}
+	}
+
+	private int next() {
+		this._index = (this._index + 1) & (RouteTables.URL_COUNT - 1);
+		return this._index;
+	}
+
+	@Benchmark
+	public Intent coldLookup() {
+		return this._coldRouter.intentFor(this._urls[next()]);
+	}
+
+	@Benchmark
+	public Intent warmLookup() {
+		return this._warmRouter.intentFor(this._urls[next()]);
+	}
+
+	@Benchmark
+	public Intent coldQueryHeavyLookup() {
+		return this._coldRouter.intentFor(this._queryUrls[next()]);
+	}
+
+	@Benchmark
+	public void missLookup(Blackhole blackhole) {
+		try {
+			blackhole.consume(this._coldRouter.intentFor(this._missingUrls[next()]));
+		} catch (Router.RouteNotFoundException e) {
+			blackhole.consume(e);
+		}
+	}
+}
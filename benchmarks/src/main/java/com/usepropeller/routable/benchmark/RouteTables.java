@@ -0,0 +1,118 @@
+package com.usepropeller.routable.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import android.app.Activity;
+
+import com.usepropeller.routable.RouteTableWriter;
+import com.usepropeller.routable.Router;
+import com.usepropeller.routable.Router.RouterOptions;
+
+/**
+ * Builds routers and URLs shaped like a real app's deep-link table: a mix of static,
+ * single-param and nested-param routes spread over many top-level sections.
+ */
+final class RouteTables {
+	static final int URL_COUNT = 1024;
+
+	static class DetailActivity extends Activity {
+	}
+
+	private RouteTables() {
+	}
+
+	static Router router(int routeCount) {
+		Router router = new Router();
+		for (int route = 0; route < routeCount; route++) {
+			router.map(format(route), DetailActivity.class, options(route));
+		}
+		return router;
+	}
+
+	/**
+	 * @return The same routes as {@link #router(int)}, as a binary route table
+	 */
+	static byte[] binaryTable(int routeCount) {
+		RouteTableWriter writer = new RouteTableWriter();
+		for (int route = 0; route < routeCount; route++) {
+			RouterOptions options = options(route);
+			writer.map(format(route), DetailActivity.class.getName(), options == null ? null : options.getDefaultParams());
+		}
+		return writer.toByteArray();
+	}
+
+	static String format(int route) {
+		switch (route % 4) {
+			case 0:
+				return "section" + route + "/items";
+			case 1:
+				return "section" + route + "/items/:id";
+			case 2:
+				return "section" + route + "/items/:id/comments/:comment_id";
+			default:
+				return "/section" + route + "/:category/latest";
+		}
+	}
+
+	static String url(int route, int id) {
+		switch (route % 4) {
+			case 0:
+				return "section" + route + "/items";
+			case 1:
+				return "section" + route + "/items/" + id;
+			case 2:
+				return "section" + route + "/items/" + id + "/comments/" + (id * 31);
+			default:
+				return "/section" + route + "/category" + id + "/latest";
+		}
+	}
+
+	/**
+	 * @return URL_COUNT URLs that each match one of the first routeCount routes
+	 */
+	static String[] urls(int routeCount) {
+		String[] urls = new String[URL_COUNT];
+		for (int index = 0; index < URL_COUNT; index++) {
+			int route = (int) ((index * 2654435761L) % routeCount);
+			urls[index] = url(route, index);
+		}
+		return urls;
+	}
+
+	/**
+	 * @return URL_COUNT URLs that don't match any route
+	 */
+	static String[] missingUrls(int routeCount) {
+		String[] urls = new String[URL_COUNT];
+		for (int index = 0; index < URL_COUNT; index++) {
+			int route = (int) ((index * 2654435761L) % routeCount);
+			urls[index] = "section" + route + "/unknown/" + index;
+		}
+		return urls;
+	}
+
+	/**
+	 * @return URLs like {@link #urls(int)} with a tracking-heavy query string
+	 */
+	static String[] queryUrls(int routeCount) {
+		String[] urls = urls(routeCount);
+		for (int index = 0; index < urls.length; index++) {
+			urls[index] = urls[index] + "?utm_source=newsletter&utm_medium=email&utm_campaign=spring%20sale"
+					+ "&utm_content=hero+banner&ref=feed&position=" + index + "&session=a1b2c3d4e5f6"
+					+ "&redirect=https%3A%2F%2Fexample.com%2Fpath%3Fq%3D1&lang=en&variant=" + (index % 3);
+		}
+		return urls;
+	}
+
+	private static RouterOptions options(int route) {
+		if (route % 8 != 0) {
+			return null;
+		}
+		Map<String, String> defaultParams = new HashMap<String, String>();
+		defaultParams.put("source", "benchmark");
+		defaultParams.put("section", String.valueOf(route));
+		defaultParams.put("layout", "grid");
+		return new RouterOptions(defaultParams);
+	}
+}
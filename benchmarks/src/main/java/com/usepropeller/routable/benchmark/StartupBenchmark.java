@@ -0,0 +1,77 @@
+package com.usepropeller.routable.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import android.content.Intent;
+
+import com.usepropeller.routable.RouteTable;
+import com.usepropeller.routable.Router;
+import com.usepropeller.routable.Router.RouterOptions;
+
+/**
+ * Measures getting a large route table into a new router and opening one URL from it: mapping every route
+ * one call at a time or all at once, against loading a binary route table that is decoded as URLs reach its routes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StartupBenchmark {
+	@Param({ "1000", "20000" })
+	public int routeCount;
+
+	private ByteBuffer _table;
+	private String _url;
+
+	@Setup
+	public void setUp() {
+		byte[] table = RouteTables.binaryTable(this.routeCount);
+		this._table = ByteBuffer.allocateDirect(table.length);
+		this._table.put(table).flip();
+		this._url = RouteTables.url(this.routeCount / 2 + 1, 7);
+	}
+
+	@Benchmark
+	public Intent mapEachRoute() {
+		return RouteTables.router(this.routeCount).intentFor(this._url);
+	}
+
+	@Benchmark
+	public Intent mapRouteTable() {
+		Router router = new Router();
+		router.map(new RouteTable() {
+			@Override
+			public void loadInto(Map<String, RouterOptions> routes) {
+				for (int route = 0; route < StartupBenchmark.this.routeCount; route++) {
+					RouterOptions options = new RouterOptions();
+					options.setOpenClass(RouteTables.DetailActivity.class);
+					routes.put(RouteTables.format(route), options);
+				}
+			}
+		});
+		return router.intentFor(this._url);
+	}
+
+	@Benchmark
+	public Intent loadBinaryTable() {
+		Router router = new Router();
+		router.map(this._table.duplicate());
+		return router.intentFor(this._url);
+	}
+}
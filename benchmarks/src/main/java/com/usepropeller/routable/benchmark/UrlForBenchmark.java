@@ -0,0 +1,57 @@
+package com.usepropeller.routable.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.usepropeller.routable.Router;
+import com.usepropeller.routable.UrlTemplate;
+
+/**
+ * Measures building URLs for a route, through the router's template cache and with a reused builder.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UrlForBenchmark {
+	private static final String FORMAT = "groups/:id{int}/topics/:topic_id";
+
+	private Router _router;
+	private Map<String, Object> _params;
+	private UrlTemplate.Builder _builder;
+	private int _id;
+
+	@Setup
+	public void setUp() {
+		this._router = RouteTables.router(1000);
+		this._router.map(FORMAT, RouteTables.DetailActivity.class);
+		this._params = new HashMap<String, Object>();
+		this._params.put("id", 5);
+		this._params.put("topic_id", "welcome");
+		this._builder = this._router.urlTemplate(FORMAT).builder();
+	}
+
+	@Benchmark
+	public String urlFor() {
+		return this._router.urlFor(FORMAT, this._params);
+	}
+
+	@Benchmark
+	public String reusedBuilder() {
+		return this._builder.set("id", ++this._id & 1023).set("topic_id", "welcome").build();
+	}
+}
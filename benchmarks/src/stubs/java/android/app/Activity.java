@@ -0,0 +1,16 @@
+package android.app;
+
+import android.content.Context;
+
+/**
+ * JVM stand-in for the Android class, with just enough surface for the router to compile.
+ */
+public class Activity extends Context {
+	public FragmentManager getFragmentManager() {
+		return new FragmentManager();
+	}
+
+	public boolean isFinishing() {
+		return false;
+	}
+}
@@ -0,0 +1,29 @@
+package android.app;
+
+import android.content.Context;
+import android.os.Bundle;
+
+/**
+ * JVM stand-in for the Android class, with just enough surface for the router to compile.
+ */
+public class Fragment {
+	private Bundle _arguments;
+
+	public static Fragment instantiate(Context context, String className, Bundle arguments) {
+		try {
+			Fragment fragment = (Fragment) Class.forName(className).newInstance();
+			fragment.setArguments(arguments);
+			return fragment;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public void setArguments(Bundle arguments) {
+		this._arguments = arguments;
+	}
+
+	public Bundle getArguments() {
+		return this._arguments;
+	}
+}
@@ -0,0 +1,10 @@
+package android.app;
+
+/**
+ * JVM stand-in for the Android class, with just enough surface for the router to compile.
+ */
+public class FragmentManager {
+	public FragmentTransaction beginTransaction() {
+		return new FragmentTransaction();
+	}
+}
@@ -0,0 +1,18 @@
+package android.app;
+
+/**
+ * JVM stand-in for the Android class, with just enough surface for the router to compile.
+ */
+public class FragmentTransaction {
+	public FragmentTransaction replace(int containerViewId, Fragment fragment) {
+		return this;
+	}
+
+	public FragmentTransaction addToBackStack(String name) {
+		return this;
+	}
+
+	public int commit() {
+		return 0;
+	}
+}
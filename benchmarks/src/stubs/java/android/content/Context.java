@@ -0,0 +1,24 @@
+package android.content;
+
+/**
+ * JVM stand-in for the Android class; started Intents are dropped.
+ */
+public class Context {
+	public static final int MODE_PRIVATE = 0;
+
+	private final SharedPreferences _preferences = new SharedPreferences();
+
+	public void startActivity(Intent intent) {
+	}
+
+	public void startActivities(Intent[] intents) {
+	}
+
+	public String getPackageName() {
+		return "com.usepropeller.routable.benchmark";
+	}
+
+	public SharedPreferences getSharedPreferences(String name, int mode) {
+		return this._preferences;
+	}
+}
@@ -0,0 +1,91 @@
+package android.content;
+
+import android.net.Uri;
+import android.os.Bundle;
+
+/**
+ * JVM stand-in for the Android class. Extras are kept in a {@link Bundle} so that
+ * allocation per Intent is comparable to the platform's.
+ */
+public class Intent {
+	public static final String ACTION_VIEW = "android.intent.action.VIEW";
+	public static final int FLAG_ACTIVITY_NEW_TASK = 0x10000000;
+
+	private String _action;
+	private Uri _data;
+	private Bundle _extras;
+	private int _flags;
+	private String _packageName;
+	private String _className;
+
+	public Intent() {
+	}
+
+	public Intent(String action, Uri data) {
+		this._action = action;
+		this._data = data;
+	}
+
+	public Intent(Intent other) {
+		this._action = other._action;
+		this._data = other._data;
+		this._extras = other._extras == null ? null : new Bundle(other._extras);
+		this._flags = other._flags;
+		this._packageName = other._packageName;
+		this._className = other._className;
+	}
+
+	public Intent putExtra(String name, String value) {
+		extras().putString(name, value);
+		return this;
+	}
+
+	public Intent putExtra(String name, int value) {
+		extras().putInt(name, value);
+		return this;
+	}
+
+	public Intent putExtra(String name, long value) {
+		extras().putLong(name, value);
+		return this;
+	}
+
+	public Intent putExtras(Bundle extras) {
+		extras().putAll(extras);
+		return this;
+	}
+
+	public Bundle getExtras() {
+		return this._extras == null ? null : new Bundle(this._extras);
+	}
+
+	public Intent addFlags(int flags) {
+		this._flags |= flags;
+		return this;
+	}
+
+	public int getFlags() {
+		return this._flags;
+	}
+
+	public Intent setClass(Context context, Class<?> klass) {
+		return setClassName(context, klass.getName());
+	}
+
+	public Intent setClassName(Context context, String className) {
+		this._packageName = context.getPackageName();
+		this._className = className;
+		return this;
+	}
+
+	public Uri getData() {
+		return this._data;
+	}
+
+	private Bundle extras() {
+		if (this._extras == null) {
+			this._extras = new Bundle();
+		}
+		return this._extras;
+	}
+}
@@ -0,0 +1,30 @@
+package android.content;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * JVM stand-in for the Android interface, held in memory.
+ */
+public class SharedPreferences {
+	private final Map<String, String> _strings = new HashMap<String, String>();
+
+	public String getString(String key, String defaultValue) {
+		String value = this._strings.get(key);
+		return value == null ? defaultValue : value;
+	}
+
+	public Editor edit() {
+		return new Editor();
+	}
+
+	public class Editor {
+		public Editor putString(String key, String value) {
+			SharedPreferences.this._strings.put(key, value);
+			return this;
+		}
+
+		public void apply() {
+		}
+	}
+}
@@ -0,0 +1,21 @@
+package android.net;
+
+/**
+ * JVM stand-in for the Android class.
+ */
+public class Uri {
+	private final String _uri;
+
+	private Uri(String uri) {
+		this._uri = uri;
+	}
+
+	public static Uri parse(String uri) {
+		return new Uri(uri);
+	}
+
+	@Override
+	public String toString() {
+		return this._uri;
+	}
+}
@@ -0,0 +1,15 @@
+package android.os;
+
+/**
+ * JVM stand-in for the Android class, reporting the newest API level the router checks for.
+ */
+public class Build {
+	public static class VERSION {
+		public static final int SDK_INT = 18;
+	}
+
+	public static class VERSION_CODES {
+		public static final int HONEYCOMB = 11;
+		public static final int JELLY_BEAN_MR2 = 18;
+	}
+}
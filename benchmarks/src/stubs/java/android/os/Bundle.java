@@ -0,0 +1,58 @@
+package android.os;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * JVM stand-in for the Android class, backed by a {@link HashMap} like the platform's.
+ */
+public class Bundle {
+	private final Map<String, Object> _values;
+
+	public Bundle() {
+		this._values = new HashMap<String, Object>();
+	}
+
+	public Bundle(Bundle other) {
+		this._values = new HashMap<String, Object>(other._values);
+	}
+
+	public void putString(String key, String value) {
+		this._values.put(key, value);
+	}
+
+	public void putInt(String key, int value) {
+		this._values.put(key, value);
+	}
+
+	public void putLong(String key, long value) {
+		this._values.put(key, value);
+	}
+
+	public String getString(String key) {
+		Object value = this._values.get(key);
+		return value instanceof String ? (String) value : null;
+	}
+
+	public long getLong(String key, long defaultValue) {
+		Object value = this._values.get(key);
+		return value instanceof Long ? ((Long) value).longValue() : defaultValue;
+	}
+
+	public void putAll(Bundle other) {
+		this._values.putAll(other._values);
+	}
+
+	public boolean containsKey(String key) {
+		return this._values.containsKey(key);
+	}
+
+	public Set<String> keySet() {
+		return this._values.keySet();
+	}
+
+	public int size() {
+		return this._values.size();
+	}
+}
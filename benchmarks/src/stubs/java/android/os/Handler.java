@@ -0,0 +1,14 @@
+package android.os;
+
+/**
+ * JVM stand-in for the Android class; posted Runnables run immediately.
+ */
+public class Handler {
+	public Handler(Looper looper) {
+	}
+
+	public boolean post(Runnable runnable) {
+		runnable.run();
+		return true;
+	}
+}
@@ -0,0 +1,16 @@
+package android.os;
+
+/**
+ * JVM stand-in for the Android class; every thread shares one main looper.
+ */
+public class Looper {
+	private static final Looper MAIN = new Looper();
+
+	public static Looper getMainLooper() {
+		return MAIN;
+	}
+
+	public static Looper myLooper() {
+		return MAIN;
+	}
+}
@@ -0,0 +1,12 @@
+package android.os;
+
+/**
+ * JVM stand-in for the Android class, with just enough surface for the router to compile.
+ */
+public class Trace {
+	public static void beginSection(String sectionName) {
+	}
+
+	public static void endSection() {
+	}
+}
@@ -0,0 +1,276 @@
+package com.usepropeller.routable.compiler;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Collects every {@code @Route} annotated Activity into a generated
+ * {@code com.usepropeller.routable.RouteTable}, so that an app can map all of its routes in one step
+ * at startup without reflection or class scanning:
+ *
+ * <pre>
+ * Router.sharedRouter().map(new GeneratedRouteTable());
+ * </pre>
+ *
+ * The generated class is {@code com.usepropeller.routable.GeneratedRouteTable} unless the
+ * {@code routable.routeTable} processor option names another fully qualified class.
+ *
+ * Compilation fails if two Activities map the same format, or formats that only differ in the
+ * names of their params (i.e. "users/:id" and "users/:user_id"), since only one could ever be opened.
+ */
+public class RouteProcessor extends AbstractProcessor {
+	static final String ROUTE_ANNOTATION = "com.usepropeller.routable.Route";
+	static final String ROUTE_TABLE_OPTION = "routable.routeTable";
+	static final String DEFAULT_ROUTE_TABLE = "com.usepropeller.routable.GeneratedRouteTable";
+	private static final String ACTIVITY_CLASS = "android.app.Activity";
+
+	private static class MappedRoute {
+		final String format;
+		final TypeElement activity;
+
+		MappedRoute(String format, TypeElement activity) {
+			this.format = format;
+			this.activity = activity;
+		}
+	}
+
+	// Keyed by the format's shape, with every param replaced by ":"
+	private final Map<String, MappedRoute> _routes = new TreeMap<String, MappedRoute>();
+	private boolean _generated;
+
+	@Override
+	public Set<String> getSupportedAnnotationTypes() {
+		return Collections.singleton(ROUTE_ANNOTATION);
+	}
+
+	@Override
+	public Set<String> getSupportedOptions() {
+		return Collections.singleton(ROUTE_TABLE_OPTION);
+	}
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		TypeElement routeAnnotation = processingEnv.getElementUtils().getTypeElement(ROUTE_ANNOTATION);
+		if (routeAnnotation == null) {
+			return false;
+		}
+
+		boolean foundRoutes = false;
+		for (Element element : roundEnv.getElementsAnnotatedWith(routeAnnotation)) {
+			foundRoutes = true;
+			if (this._generated) {
+				error(element, "@Route cannot be used on classes generated after the route table was written");
+				continue;
+			}
+			if (!isActivity(element)) {
+				continue;
+			}
+			for (String format : formatsOf(element, routeAnnotation)) {
+				addRoute(format, (TypeElement) element);
+			}
+		}
+
+		if (foundRoutes && !this._generated) {
+			this._generated = true;
+			writeRouteTable();
+		}
+		return true;
+	}
+
+	private boolean isActivity(Element element) {
+		if (element.getKind() != ElementKind.CLASS || element.getModifiers().contains(Modifier.ABSTRACT)) {
+			error(element, "@Route can only be used on concrete Activity classes");
+			return false;
+		}
+		TypeElement activity = processingEnv.getElementUtils().getTypeElement(ACTIVITY_CLASS);
+		if (activity != null
+				&& !processingEnv.getTypeUtils().isSubtype(element.asType(), activity.asType())) {
+			error(element, "@Route can only be used on subclasses of " + ACTIVITY_CLASS);
+			return false;
+		}
+		return true;
+	}
+
+	private List<String> formatsOf(Element element, TypeElement routeAnnotation) {
+		TypeMirror routeType = routeAnnotation.asType();
+		for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+			if (!processingEnv.getTypeUtils().isSameType(mirror.getAnnotationType(), routeType)) {
+				continue;
+			}
+			for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> value
+					: mirror.getElementValues().entrySet()) {
+				if (!value.getKey().getSimpleName().contentEquals("value")) {
+					continue;
+				}
+				Object formats = value.getValue().getValue();
+				if (formats instanceof String) {
+					return Collections.singletonList((String) formats);
+				}
+				List<String> result = new ArrayList<String>();
+				for (Object format : (List<?>) formats) {
+					result.add((String) ((AnnotationValue) format).getValue());
+				}
+				return result;
+			}
+		}
+		return Collections.emptyList();
+	}
+
+	private void addRoute(String format, TypeElement activity) {
+		String cleanedFormat = cleanFormat(format);
+		String shape = shapeOf(cleanedFormat);
+		MappedRoute existing = this._routes.get(shape);
+		if (existing == null) {
+			this._routes.put(shape, new MappedRoute(cleanedFormat, activity));
+			return;
+		}
+
+		if (existing.format.equals(cleanedFormat)) {
+			error(activity, "Route \"" + format + "\" is already mapped to "
+					+ existing.activity.getQualifiedName());
+		} else {
+			error(activity, "Route \"" + format + "\" conflicts with \"" + existing.format
+					+ "\" mapped to " + existing.activity.getQualifiedName());
+		}
+	}
+
+	private void writeRouteTable() {
+		String tableName = processingEnv.getOptions().get(ROUTE_TABLE_OPTION);
+		if (tableName == null || tableName.length() == 0) {
+			tableName = DEFAULT_ROUTE_TABLE;
+		}
+		int lastDot = tableName.lastIndexOf('.');
+		String packageName = lastDot < 0 ? null : tableName.substring(0, lastDot);
+		String simpleName = tableName.substring(lastDot + 1);
+
+		StringBuilder source = new StringBuilder();
+		if (packageName != null) {
+			source.append("package ").append(packageName).append(";\n\n");
+		}
+		source.append("import java.util.Map;\n\n")
+				.append("import com.usepropeller.routable.RouteTable;\n")
+				.append("import com.usepropeller.routable.Router.RouterOptions;\n\n")
+				.append("/**\n * Generated by the routable compiler from @Route annotations. Do not edit.\n */\n")
+				.append("public final class ").append(simpleName).append(" implements RouteTable {\n")
+				.append("\t@Override\n")
+				.append("\tpublic void loadInto(Map<String, RouterOptions> routes) {\n")
+				.append("\t\tRouterOptions options;\n");
+		for (MappedRoute route : this._routes.values()) {
+			source.append("\t\toptions = new RouterOptions();\n")
+					.append("\t\toptions.setOpenClassName(\"")
+					.append(processingEnv.getElementUtils().getBinaryName(route.activity)).append("\");\n")
+					.append("\t\troutes.put(\"").append(escape(route.format)).append("\", options);\n");
+		}
+		source.append("\t}\n}\n");
+
+		Element[] originatingElements = new Element[this._routes.size()];
+		int index = 0;
+		for (MappedRoute route : this._routes.values()) {
+			originatingElements[index++] = route.activity;
+		}
+
+		try {
+			JavaFileObject file = processingEnv.getFiler().createSourceFile(tableName, originatingElements);
+			Writer writer = file.openWriter();
+			try {
+				writer.write(source.toString());
+			} finally {
+				writer.close();
+			}
+		} catch (IOException e) {
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+					"Could not write route table " + tableName + ": " + e.getMessage());
+		}
+	}
+
+	private void error(Element element, String message) {
+		processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+	}
+
+	static String cleanFormat(String format) {
+		if (format.startsWith("/")) {
+			return format.substring(1);
+		}
+		return format;
+	}
+
+	/*
+	 * The part of a format that decides which URLs it matches: params become ":" followed by their constraint, if
+	 * any, so that "users/:id{int}" and "users/:name{[a-z]+}" can both be mapped, as they can at runtime.
+	 */
+	static String shapeOf(String cleanedFormat) {
+		StringBuilder shape = new StringBuilder();
+		for (String segment : split(cleanedFormat)) {
+			if (shape.length() > 0) {
+				shape.append('/');
+			}
+			if (!segment.startsWith(":")) {
+				shape.append(segment);
+				continue;
+			}
+			shape.append(':');
+			int brace = segment.indexOf('{');
+			if (brace >= 0) {
+				shape.append(segment, brace, segment.length());
+			}
+		}
+		return shape.toString();
+	}
+
+	/*
+	 * Splits a format on "/", except inside a constraint's braces, dropping trailing empty segments; the same
+	 * split as the router's RoutePattern, which this module can't depend on.
+	 */
+	static List<String> split(String format) {
+		List<String> segments = new ArrayList<String>();
+		int depth = 0;
+		int start = 0;
+		for (int index = 0; index < format.length(); index++) {
+			char c = format.charAt(index);
+			if (c == '{') {
+				depth++;
+			} else if (c == '}' && depth > 0) {
+				depth--;
+			} else if (c == '/' && depth == 0) {
+				segments.add(format.substring(start, index));
+				start = index + 1;
+			}
+		}
+		segments.add(format.substring(start));
+		if (segments.size() > 1) {
+			while (!segments.isEmpty() && segments.get(segments.size() - 1).length() == 0) {
+				segments.remove(segments.size() - 1);
+			}
+		}
+		return segments;
+	}
+
+	private static String escape(String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+}
@@ -0,0 +1,411 @@
+package com.usepropeller.routable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The binary route table format written by {@link RouteTableWriter}: each shard's route trie, laid out
+ * so that a node can be read straight from a (usually memory-mapped) buffer the first time a URL reaches it.
+ * Loading a table only reads its header, however many routes it holds.
+ *
+ * All numbers are big-endian ints. Node offsets are from the start of the table; string references
+ * are from the start of the string section, where each string is its UTF-8 length and bytes.
+ * <pre>
+ * header:  magic, version, string section offset, shard count, (shard key, root node offset) per shard
+ * node:    route offset or -1, param child offset or -1,
+ *          constrained child count, (constraint source, child offset) per constrained child,
+ *          static child count, (segment, child offset) per static child, sorted by the segments' UTF-8 bytes
+ * route:   format, open class name, default param count, (name, value) per default param
+ * </pre>
+ */
+class BinaryRouteTable {
+	static final int MAGIC = 0x5254424c; // "RTBL"
+	static final int VERSION = 1;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	/**
+	 * Builds a table's route targets from their open class name and default params.
+	 */
+	interface TargetDecoder<T> {
+		T decode(String className, Map<String, String> defaultParams);
+	}
+
+	/**
+	 * A route as written: the Activity to open and its default params.
+	 */
+	static class Target {
+		final String className;
+		final Map<String, String> defaultParams;
+
+		Target(String className, Map<String, String> defaultParams) {
+			this.className = className;
+			this.defaultParams = defaultParams;
+		}
+	}
+
+	private final ByteBuffer _buffer;
+	private final int _strings;
+
+	private BinaryRouteTable(ByteBuffer buffer) {
+		this._buffer = buffer;
+		if (buffer.capacity() < 16 || buffer.getInt(0) != MAGIC) {
+			throw new IllegalArgumentException("Not a route table");
+		}
+		if (buffer.getInt(4) != VERSION) {
+			throw new IllegalArgumentException("Unsupported route table version " + buffer.getInt(4));
+		}
+		this._strings = buffer.getInt(8);
+	}
+
+	/**
+	 * @param buffer A table written by {@link #write(Map, DataOutputStream)}, from its position to its limit
+	 * @return A lazily decoded trie for each shard in the table, keyed like {@link RouteResolver#shardKey}
+	 * @throws IllegalArgumentException If the buffer doesn't hold a table of this version
+	 */
+	static <T> Map<String, RouteTrie<T>> load(ByteBuffer buffer, TargetDecoder<T> decoder) {
+		BinaryRouteTable table = new BinaryRouteTable(buffer.slice());
+		int shardCount = table._buffer.getInt(12);
+		Map<String, RouteTrie<T>> shards = new HashMap<String, RouteTrie<T>>();
+		for (int shard = 0; shard < shardCount; shard++) {
+			int position = 16 + shard * 8;
+			String key = table.string(table._buffer.getInt(position));
+			shards.put(key, new RouteTrie<T>(new LazyNode<T>(table, decoder, table._buffer.getInt(position + 4))));
+		}
+		return shards;
+	}
+
+	/*
+	 * A node read from the table on first use. Decoding is idempotent, so racing threads at worst decode
+	 * the same part twice.
+	 */
+	private static class LazyNode<T> extends RouteTrie.Node<T> {
+		private static final Object NONE = new Object();
+
+		private final BinaryRouteTable _table;
+		private final TargetDecoder<T> _decoder;
+		private final int _offset;
+		private final int _staticCount;
+		private final int _staticStart;
+		private volatile Object _entry;
+		private volatile Object _paramChild;
+		private volatile Object _constrainedChildren;
+		private volatile Map<String, RouteTrie.Node<T>> _staticChildren;
+		// Static children decoded so far, keyed by segment
+		private final Map<String, RouteTrie.Node<T>> _loadedChildren = new HashMap<String, RouteTrie.Node<T>>();
+
+		LazyNode(BinaryRouteTable table, TargetDecoder<T> decoder, int offset) {
+			super(null, null, null, null);
+			this._table = table;
+			this._decoder = decoder;
+			this._offset = offset;
+			int constrainedCount = table._buffer.getInt(offset + 8);
+			this._staticStart = offset + 16 + constrainedCount * 8;
+			this._staticCount = table._buffer.getInt(this._staticStart - 4);
+		}
+
+		@Override
+		RouteTrie.Entry<T> entry() {
+			Object entry = this._entry;
+			if (entry == null) {
+				int route = this._table._buffer.getInt(this._offset);
+				entry = route < 0 ? NONE : this._table.entry(route, this._decoder);
+				this._entry = entry;
+			}
+			@SuppressWarnings("unchecked")
+			RouteTrie.Entry<T> result = entry == NONE ? null : (RouteTrie.Entry<T>) entry;
+			return result;
+		}
+
+		@Override
+		RouteTrie.Node<T> paramChild() {
+			Object child = this._paramChild;
+			if (child == null) {
+				int offset = this._table._buffer.getInt(this._offset + 4);
+				child = offset < 0 ? NONE : new LazyNode<T>(this._table, this._decoder, offset);
+				this._paramChild = child;
+			}
+			@SuppressWarnings("unchecked")
+			RouteTrie.Node<T> result = child == NONE ? null : (RouteTrie.Node<T>) child;
+			return result;
+		}
+
+		@Override
+		Map<String, RouteTrie.ConstrainedChild<T>> constrainedChildren() {
+			Object children = this._constrainedChildren;
+			if (children == null) {
+				ByteBuffer buffer = this._table._buffer;
+				int count = buffer.getInt(this._offset + 8);
+				if (count == 0) {
+					children = NONE;
+				} else {
+					Map<String, RouteTrie.ConstrainedChild<T>> constrained =
+							new LinkedHashMap<String, RouteTrie.ConstrainedChild<T>>();
+					for (int index = 0; index < count; index++) {
+						int position = this._offset + 12 + index * 8;
+						String source = this._table.string(buffer.getInt(position));
+						constrained.put(source, new RouteTrie.ConstrainedChild<T>(
+								RoutePattern.constraintFor(source, source),
+								new LazyNode<T>(this._table, this._decoder, buffer.getInt(position + 4))));
+					}
+					children = Collections.unmodifiableMap(constrained);
+				}
+				this._constrainedChildren = children;
+			}
+			@SuppressWarnings("unchecked")
+			Map<String, RouteTrie.ConstrainedChild<T>> result =
+					children == NONE ? null : (Map<String, RouteTrie.ConstrainedChild<T>>) children;
+			return result;
+		}
+
+		@Override
+		Map<String, RouteTrie.Node<T>> staticChildren() {
+			if (this._staticCount == 0) {
+				return null;
+			}
+			Map<String, RouteTrie.Node<T>> children = this._staticChildren;
+			if (children == null) {
+				children = new HashMap<String, RouteTrie.Node<T>>();
+				for (int index = 0; index < this._staticCount; index++) {
+					int position = this._staticStart + index * 8;
+					String segment = this._table.string(this._table._buffer.getInt(position));
+					children.put(segment, this.loadedChild(segment, position));
+				}
+				this._staticChildren = children;
+			}
+			return children;
+		}
+
+		/*
+		 * Binary searches the segment's UTF-8 bytes among the static children, decoding only the child found.
+		 */
+		@Override
+		RouteTrie.Node<T> staticChild(String segment) {
+			if (this._staticCount == 0) {
+				return null;
+			}
+			byte[] key = segment.getBytes(UTF_8);
+			int low = 0;
+			int high = this._staticCount - 1;
+			while (low <= high) {
+				int middle = (low + high) >>> 1;
+				int position = this._staticStart + middle * 8;
+				int comparison = this._table.compare(this._table._buffer.getInt(position), key);
+				if (comparison < 0) {
+					low = middle + 1;
+				} else if (comparison > 0) {
+					high = middle - 1;
+				} else {
+					return this.loadedChild(segment, position);
+				}
+			}
+			return null;
+		}
+
+		private RouteTrie.Node<T> loadedChild(String segment, int position) {
+			synchronized (this._loadedChildren) {
+				RouteTrie.Node<T> child = this._loadedChildren.get(segment);
+				if (child == null) {
+					child = new LazyNode<T>(this._table, this._decoder, this._table._buffer.getInt(position + 4));
+					this._loadedChildren.put(segment, child);
+				}
+				return child;
+			}
+		}
+	}
+
+	private <T> RouteTrie.Entry<T> entry(int offset, TargetDecoder<T> decoder) {
+		String format = this.string(this._buffer.getInt(offset));
+		String className = this.string(this._buffer.getInt(offset + 4));
+		int paramCount = this._buffer.getInt(offset + 8);
+		Map<String, String> defaultParams = null;
+		if (paramCount > 0) {
+			defaultParams = new HashMap<String, String>();
+			for (int index = 0; index < paramCount; index++) {
+				int position = offset + 12 + index * 8;
+				defaultParams.put(this.string(this._buffer.getInt(position)), this.string(this._buffer.getInt(position + 4)));
+			}
+		}
+		return new RouteTrie.Entry<T>(RoutePattern.compile(format, RouteResolver.pathOf(format)),
+				decoder.decode(className, defaultParams));
+	}
+
+	private String string(int reference) {
+		int position = this._strings + reference;
+		int length = this._buffer.getInt(position);
+		byte[] bytes = new byte[length];
+		for (int index = 0; index < length; index++) {
+			bytes[index] = this._buffer.get(position + 4 + index);
+		}
+		return new String(bytes, UTF_8);
+	}
+
+	/*
+	 * Compares the referenced string's UTF-8 bytes with key's, unsigned, without decoding the string.
+	 */
+	private int compare(int reference, byte[] key) {
+		int position = this._strings + reference;
+		int length = this._buffer.getInt(position);
+		int common = Math.min(length, key.length);
+		for (int index = 0; index < common; index++) {
+			int difference = (this._buffer.get(position + 4 + index) & 0xff) - (key[index] & 0xff);
+			if (difference != 0) {
+				return difference;
+			}
+		}
+		return length - key.length;
+	}
+
+	/**
+	 * Writes the shards of routes, as built by a {@link RouteResolver}, in this format.
+	 */
+	static void write(Map<String, RouteTrie<Target>> shards, DataOutputStream out) throws IOException {
+		new Writer(shards.size()).write(shards, out);
+	}
+
+	private static class StaticRecord {
+		// Orders segments by their UTF-8 bytes, unsigned, as LazyNode.staticChild() searches them
+		static final Comparator<StaticRecord> BY_SEGMENT = new Comparator<StaticRecord>() {
+			@Override
+			public int compare(StaticRecord left, StaticRecord right) {
+				int common = Math.min(left.bytes.length, right.bytes.length);
+				for (int index = 0; index < common; index++) {
+					int difference = (left.bytes[index] & 0xff) - (right.bytes[index] & 0xff);
+					if (difference != 0) {
+						return difference;
+					}
+				}
+				return left.bytes.length - right.bytes.length;
+			}
+		};
+
+		final byte[] bytes;
+		final int segment;
+		final int child;
+
+		StaticRecord(byte[] bytes, int segment, int child) {
+			this.bytes = bytes;
+			this.segment = segment;
+			this.child = child;
+		}
+	}
+
+	private static class Writer {
+		private final int _nodesStart;
+		private final ByteArrayOutputStream _nodeBytes = new ByteArrayOutputStream();
+		private final DataOutputStream _nodes = new DataOutputStream(this._nodeBytes);
+		private final ByteArrayOutputStream _stringBytes = new ByteArrayOutputStream();
+		private final DataOutputStream _strings = new DataOutputStream(this._stringBytes);
+		private final Map<String, Integer> _stringReferences = new HashMap<String, Integer>();
+
+		Writer(int shardCount) {
+			this._nodesStart = 16 + shardCount * 8;
+		}
+
+		void write(Map<String, RouteTrie<Target>> shards, DataOutputStream out) throws IOException {
+			List<int[]> shardRecords = new ArrayList<int[]>();
+			for (Map.Entry<String, RouteTrie<Target>> shard : shards.entrySet()) {
+				int root = this.node(shard.getValue().root());
+				shardRecords.add(new int[] { this.string(shard.getKey()), root });
+			}
+			this._nodes.flush();
+			this._strings.flush();
+
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(this._nodesStart + this._nodeBytes.size());
+			out.writeInt(shardRecords.size());
+			for (int[] record : shardRecords) {
+				out.writeInt(record[0]);
+				out.writeInt(record[1]);
+			}
+			this._nodeBytes.writeTo(out);
+			this._stringBytes.writeTo(out);
+			out.flush();
+		}
+
+		/*
+		 * Writes node's children before node itself, returning node's offset.
+		 */
+		private int node(RouteTrie.Node<Target> node) throws IOException {
+			int paramChild = node.paramChild() == null ? -1 : this.node(node.paramChild());
+
+			Map<String, RouteTrie.ConstrainedChild<Target>> constrainedChildren = node.constrainedChildren();
+			List<int[]> constrained = new ArrayList<int[]>();
+			if (constrainedChildren != null) {
+				for (Map.Entry<String, RouteTrie.ConstrainedChild<Target>> child : constrainedChildren.entrySet()) {
+					constrained.add(new int[] { this.string(child.getKey()), this.node(child.getValue().node) });
+				}
+			}
+
+			List<StaticRecord> statics = new ArrayList<StaticRecord>();
+			if (node.staticChildren() != null) {
+				for (Map.Entry<String, RouteTrie.Node<Target>> child : node.staticChildren().entrySet()) {
+					statics.add(new StaticRecord(child.getKey().getBytes(UTF_8), this.string(child.getKey()),
+							this.node(child.getValue())));
+				}
+			}
+			Collections.sort(statics, StaticRecord.BY_SEGMENT);
+
+			int route = node.entry() == null ? -1 : this.route(node.entry());
+
+			int offset = this._nodesStart + this._nodes.size();
+			this._nodes.writeInt(route);
+			this._nodes.writeInt(paramChild);
+			this._nodes.writeInt(constrained.size());
+			for (int[] record : constrained) {
+				this._nodes.writeInt(record[0]);
+				this._nodes.writeInt(record[1]);
+			}
+			this._nodes.writeInt(statics.size());
+			for (StaticRecord record : statics) {
+				this._nodes.writeInt(record.segment);
+				this._nodes.writeInt(record.child);
+			}
+			return offset;
+		}
+
+		private int route(RouteTrie.Entry<Target> entry) throws IOException {
+			Target target = entry.value;
+			Map<String, String> defaultParams = target.defaultParams == null
+					? Collections.<String, String>emptyMap() : target.defaultParams;
+			int format = this.string(entry.pattern.format);
+			int className = this.string(target.className);
+			List<int[]> params = new ArrayList<int[]>();
+			for (Map.Entry<String, String> param : defaultParams.entrySet()) {
+				params.add(new int[] { this.string(param.getKey()), this.string(param.getValue()) });
+			}
+
+			int offset = this._nodesStart + this._nodes.size();
+			this._nodes.writeInt(format);
+			this._nodes.writeInt(className);
+			this._nodes.writeInt(params.size());
+			for (int[] param : params) {
+				this._nodes.writeInt(param[0]);
+				this._nodes.writeInt(param[1]);
+			}
+			return offset;
+		}
+
+		private int string(String value) throws IOException {
+			Integer reference = this._stringReferences.get(value);
+			if (reference == null) {
+				reference = this._strings.size();
+				byte[] bytes = value.getBytes(UTF_8);
+				this._strings.writeInt(bytes.length);
+				this._strings.write(bytes);
+				this._stringReferences.put(value, reference);
+			}
+			return reference;
+		}
+	}
+}
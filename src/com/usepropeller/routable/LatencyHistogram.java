@@ -0,0 +1,105 @@
+package com.usepropeller.routable;
+
+/**
+ * A snapshot of the navigation latencies recorded for one route, from the moment a URL was opened until
+ * its target reported its first frame (or its callback returned). Latencies are counted in buckets whose
+ * upper bounds double from 1 ms to 32768 ms, plus one bucket for anything slower, so a histogram takes the
+ * same small, fixed space however many navigations it has seen.
+ */
+public final class LatencyHistogram {
+	static final int BUCKETS = 17;
+
+	private final long[] _counts;
+	private final long _count;
+	private final long _totalMillis;
+	private final long _maxMillis;
+
+	LatencyHistogram(long[] counts, long totalMillis, long maxMillis) {
+		this._counts = counts;
+		long count = 0;
+		for (long bucketCount : counts) {
+			count += bucketCount;
+		}
+		this._count = count;
+		this._totalMillis = totalMillis;
+		this._maxMillis = maxMillis;
+	}
+
+	/**
+	 * @return The index of the bucket a latency is counted in
+	 */
+	static int bucketOf(long millis) {
+		if (millis <= 1) {
+			return 0;
+		}
+		// The smallest power of two at least millis
+		return Math.min(64 - Long.numberOfLeadingZeros(millis - 1), BUCKETS - 1);
+	}
+
+	/**
+	 * @return The number of navigations recorded
+	 */
+	public long getCount() {
+		return this._count;
+	}
+
+	public long getTotalMillis() {
+		return this._totalMillis;
+	}
+
+	public long getMaxMillis() {
+		return this._maxMillis;
+	}
+
+	public double getMeanMillis() {
+		return this._count == 0 ? 0 : (double) this._totalMillis / this._count;
+	}
+
+	/**
+	 * @return The number of buckets, the same for every histogram
+	 */
+	public int getBucketCount() {
+		return this._counts.length;
+	}
+
+	/**
+	 * @return The largest latency counted in a bucket, or Long.MAX_VALUE for the last one
+	 */
+	public long getBucketUpperBoundMillis(int bucket) {
+		return bucket == BUCKETS - 1 ? Long.MAX_VALUE : 1L << bucket;
+	}
+
+	/**
+	 * @return The number of navigations counted in a bucket
+	 */
+	public long getCountInBucket(int bucket) {
+		return this._counts[bucket];
+	}
+
+	/**
+	 * @param percentile Between 0 and 100; for example, 95
+	 * @return An upper bound on the latency within which that percentage of navigations completed, or 0 if none were
+	 * recorded: the upper bound of the bucket holding the percentile, or the slowest latency if that is lower
+	 */
+	public long getPercentileMillis(double percentile) {
+		if (percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException("Percentile must be between 0 and 100: " + percentile);
+		}
+		long rank = (long) Math.ceil(this._count * percentile / 100);
+		long seen = 0;
+		for (int bucket = 0; bucket < this._counts.length; bucket++) {
+			seen += this._counts[bucket];
+			if (seen > 0 && seen >= rank) {
+				return Math.min(this.getBucketUpperBoundMillis(bucket), this._maxMillis);
+			}
+		}
+		return 0;
+	}
+
+	@Override
+	public String toString() {
+		return "LatencyHistogram[count=" + this._count + ", mean=" + this.getMeanMillis() + "ms, p50="
+				+ this.getPercentileMillis(50) + "ms, p95=" + this.getPercentileMillis(95) + "ms, max="
+				+ this._maxMillis + "ms]";
+	}
+}
@@ -0,0 +1,137 @@
+package com.usepropeller.routable;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Times navigations from the moment a URL is opened until its target reports its first frame, and keeps a
+ * latency histogram for each route. Each navigation to an Activity or Fragment gets an id, handed to the target
+ * in its extras, that the target reports back. Off until enabled.
+ */
+class NavigationTracker {
+	// Navigations whose targets never report are forgotten, oldest first, beyond this many
+	private static final int MAX_PENDING = 32;
+
+	private static class Pending {
+		final String format;
+		final long startMillis;
+
+		Pending(String format, long startMillis) {
+			this.format = format;
+			this.startMillis = startMillis;
+		}
+	}
+
+	private static class Latencies {
+		final long[] counts = new long[LatencyHistogram.BUCKETS];
+		long totalMillis;
+		long maxMillis;
+	}
+
+	private volatile boolean _enabled;
+	private volatile Router.Clock _clock = Router.Clock.SYSTEM;
+	private long _lastId;
+	private final Map<Long, Pending> _pending = new LinkedHashMap<Long, Pending>() {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, Pending> eldest) {
+			return this.size() > MAX_PENDING;
+		}
+	};
+	private final Map<String, Latencies> _latencies = new HashMap<String, Latencies>();
+
+	void setEnabled(boolean enabled) {
+		this._enabled = enabled;
+	}
+
+	boolean isEnabled() {
+		return this._enabled;
+	}
+
+	void setClock(Router.Clock clock) {
+		this._clock = clock == null ? Router.Clock.SYSTEM : clock;
+	}
+
+	/**
+	 * @return The time a navigation starts, or 0 if tracking is off
+	 */
+	long now() {
+		return this._enabled ? this._clock.uptimeMillis() : 0;
+	}
+
+	/**
+	 * @param startMillis The time from {@link #now()} when the URL was opened
+	 * @return The id of a navigation that is finished by {@link #finish(long)}, or 0 if tracking is off
+	 */
+	long start(String format, long startMillis) {
+		// A URL opened before tracking was turned on has no start time
+		if (!this._enabled || startMillis == 0) {
+			return 0;
+		}
+		synchronized (this) {
+			long id = ++this._lastId;
+			this._pending.put(Long.valueOf(id), new Pending(format, startMillis));
+			return id;
+		}
+	}
+
+	/**
+	 * @return Whether id was a navigation waiting to finish
+	 */
+	boolean finish(long id) {
+		if (id == 0 || !this._enabled) {
+			return false;
+		}
+		long now = this._clock.uptimeMillis();
+		synchronized (this) {
+			Pending pending = this._pending.remove(Long.valueOf(id));
+			if (pending == null) {
+				return false;
+			}
+			this.record(pending.format, now - pending.startMillis);
+			return true;
+		}
+	}
+
+	/**
+	 * Records a navigation that finished as soon as it was dispatched, like a callback's.
+	 */
+	void finish(String format, long startMillis) {
+		if (!this._enabled || startMillis == 0) {
+			return;
+		}
+		long now = this._clock.uptimeMillis();
+		synchronized (this) {
+			this.record(format, now - startMillis);
+		}
+	}
+
+	private void record(String format, long millis) {
+		Latencies latencies = this._latencies.get(format);
+		if (latencies == null) {
+			latencies = new Latencies();
+			this._latencies.put(format, latencies);
+		}
+		latencies.counts[LatencyHistogram.bucketOf(millis)]++;
+		latencies.totalMillis += millis;
+		latencies.maxMillis = Math.max(latencies.maxMillis, millis);
+	}
+
+	/**
+	 * @return A snapshot of each route's histogram, keyed by format
+	 */
+	synchronized Map<String, LatencyHistogram> histograms() {
+		Map<String, LatencyHistogram> histograms = new HashMap<String, LatencyHistogram>();
+		for (Map.Entry<String, Latencies> entry : this._latencies.entrySet()) {
+			Latencies latencies = entry.getValue();
+			histograms.put(entry.getKey(),
+					new LatencyHistogram(latencies.counts.clone(), latencies.totalMillis, latencies.maxMillis));
+		}
+		return histograms;
+	}
+
+	synchronized void reset() {
+		this._pending.clear();
+		this._latencies.clear();
+	}
+}
@@ -0,0 +1,79 @@
+package com.usepropeller.routable;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Remembers when URLs (or routes) were last opened, so that an identical open soon afterwards, like the
+ * second tap of a double tap, can be dropped. Off until given a window.
+ */
+class OpenCoalescer {
+	// Entries older than the window are only swept once there are more than this many
+	private static final int SWEEP_THRESHOLD = 16;
+
+	private volatile long _windowMillis;
+	private volatile boolean _perRoute;
+	private volatile Router.Clock _clock = Router.Clock.SYSTEM;
+	private final Map<String, Long> _lastOpened = new HashMap<String, Long>();
+
+	/**
+	 * @param windowMillis How long after an open an identical one is dropped, or 0 to drop none
+	 * @param perRoute Whether opens are identical when they match the same route, rather than when their URLs are equal
+	 */
+	synchronized void setWindow(long windowMillis, boolean perRoute) {
+		if (windowMillis < 0) {
+			throw new IllegalArgumentException("Duplicate open window must not be negative: " + windowMillis);
+		}
+		this._windowMillis = windowMillis;
+		this._perRoute = perRoute;
+		this._lastOpened.clear();
+	}
+
+	long getWindowMillis() {
+		return this._windowMillis;
+	}
+
+	boolean isPerRoute() {
+		return this._perRoute;
+	}
+
+	void setClock(Router.Clock clock) {
+		this._clock = clock == null ? Router.Clock.SYSTEM : clock;
+	}
+
+	/**
+	 * Records an open unless it is a duplicate.
+	 * @param key The URL or, if per route, the matched route's format
+	 * @return Whether an open with the same key was recorded within the window, in which case this one should be dropped
+	 */
+	boolean isDuplicate(String key) {
+		long window = this._windowMillis;
+		if (window == 0) {
+			return false;
+		}
+		long now = this._clock.uptimeMillis();
+		synchronized (this) {
+			Long last = this._lastOpened.get(key);
+			if (last != null && now - last.longValue() < window) {
+				return true;
+			}
+			if (this._lastOpened.size() >= SWEEP_THRESHOLD) {
+				for (Iterator<Long> opened = this._lastOpened.values().iterator(); opened.hasNext();) {
+					if (now - opened.next().longValue() >= window) {
+						opened.remove();
+					}
+				}
+			}
+			this._lastOpened.put(key, Long.valueOf(now));
+			return false;
+		}
+	}
+
+	/**
+	 * Forgets an open recorded by {@link #isDuplicate(String)} that then failed, so that a retry isn't dropped.
+	 */
+	synchronized void forget(String key) {
+		this._lastOpened.remove(key);
+	}
+}
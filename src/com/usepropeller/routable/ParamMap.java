@@ -0,0 +1,136 @@
+package com.usepropeller.routable;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A read-only map over parallel arrays of names and values, for the handful of params a URL usually has.
+ * Lookups scan the arrays, which is faster than hashing at these sizes and allocates nothing.
+ *
+ * A name may appear more than once; the last value wins, as if each pair had been put into a map in order.
+ */
+final class ParamMap<V> extends AbstractMap<String, V> {
+	static final String[] NO_NAMES = new String[0];
+
+	private final String[] _names;
+	private final Object[] _values;
+	private final int _count;
+	private final int _size;
+
+	/**
+	 * @param names The names, of which the first count are used; not copied, so must not change afterwards
+	 * @param values The values, indexed like names; not copied either
+	 */
+	ParamMap(String[] names, Object[] values, int count) {
+		this._names = names;
+		this._values = values;
+		this._count = count;
+		int size = 0;
+		for (int index = 0; index < count; index++) {
+			if (!this.isShadowed(index)) {
+				size++;
+			}
+		}
+		this._size = size;
+	}
+
+	/**
+	 * @return The number of pairs, counting shadowed duplicates
+	 */
+	int count() {
+		return this._count;
+	}
+
+	String nameAt(int index) {
+		return this._names[index];
+	}
+
+	@SuppressWarnings("unchecked")
+	V valueAt(int index) {
+		return (V) this._values[index];
+	}
+
+	/*
+	 * Whether a later pair has the same name, replacing this one.
+	 */
+	private boolean isShadowed(int index) {
+		for (int later = index + 1; later < this._count; later++) {
+			if (this._names[later].equals(this._names[index])) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private int indexOf(Object name) {
+		for (int index = this._count - 1; index >= 0; index--) {
+			if (this._names[index].equals(name)) {
+				return index;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public V get(Object name) {
+		int index = this.indexOf(name);
+		return index < 0 ? null : this.valueAt(index);
+	}
+
+	@Override
+	public boolean containsKey(Object name) {
+		return this.indexOf(name) >= 0;
+	}
+
+	@Override
+	public int size() {
+		return this._size;
+	}
+
+	@Override
+	public Set<Entry<String, V>> entrySet() {
+		return new AbstractSet<Entry<String, V>>() {
+			@Override
+			public Iterator<Entry<String, V>> iterator() {
+				return new Iterator<Entry<String, V>>() {
+					private int _next = this.advance(0);
+
+					private int advance(int index) {
+						while (index < ParamMap.this._count && ParamMap.this.isShadowed(index)) {
+							index++;
+						}
+						return index;
+					}
+
+					@Override
+					public boolean hasNext() {
+						return this._next < ParamMap.this._count;
+					}
+
+					@Override
+					public Entry<String, V> next() {
+						if (!this.hasNext()) {
+							throw new NoSuchElementException();
+						}
+						int index = this._next;
+						this._next = this.advance(index + 1);
+						return new SimpleImmutableEntry<String, V>(ParamMap.this.nameAt(index), ParamMap.this.valueAt(index));
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return ParamMap.this._size;
+			}
+		};
+	}
+}
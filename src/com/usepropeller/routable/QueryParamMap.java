@@ -0,0 +1,168 @@
+package com.usepropeller.routable;
+
+import java.util.AbstractMap;
+import java.util.Set;
+
+/**
+ * A read-only map over an undecoded query string (i.e. "ref=feed&q=a+b"), optionally on top of params
+ * that are already decoded, like a route's path params. Looking up a name decodes only the pairs it has to
+ * compare and the one value it returns; the whole query is decoded only if the map is iterated or sized.
+ *
+ * Decoding matches {@link UrlTokenizer}: names and values are form-decoded, a later duplicate replaces an
+ * earlier one, a query param replaces a path param with the same name, and a name with no value ("bare" or
+ * "empty=") maps to null, as with URLEncodedUtils. Where URLEncodedUtils rejected or mangled a query, this
+ * is lenient instead: a malformed escape ("%zz") is kept as it is, a value keeps any further "=" ("a=b=c" is
+ * "b=c"), and empty pairs ("a=1&&b=2") are skipped rather than read as a param with an empty name.
+ */
+final class QueryParamMap<V> extends AbstractMap<String, V> {
+	private final String[] _pathNames;
+	private final Object[] _pathValues;
+	private final String _query;
+	// Built on first use
+	private volatile ParamMap<V> _decoded;
+
+	/**
+	 * @param query The query string without its "?" or any fragment
+	 */
+	QueryParamMap(String query) {
+		this(ParamMap.NO_NAMES, ParamMap.NO_NAMES, query);
+	}
+
+	/**
+	 * @param pathNames The names of the decoded params, which the query's params replace; not copied
+	 * @param pathValues The values of the decoded params, indexed like pathNames; not copied either
+	 */
+	QueryParamMap(String[] pathNames, Object[] pathValues, String query) {
+		this._pathNames = pathNames;
+		this._pathValues = pathValues;
+		this._query = query;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public V get(Object name) {
+		int pair = this.lastPairNamed(name);
+		if (pair >= 0) {
+			return (V) valueOfPair(this._query, pair);
+		}
+		int index = this.lastPathParamNamed(name);
+		return index < 0 ? null : (V) this._pathValues[index];
+	}
+
+	@Override
+	public boolean containsKey(Object name) {
+		return this.lastPairNamed(name) >= 0 || this.lastPathParamNamed(name) >= 0;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return this._pathNames.length == 0 && this.decoded().count() == 0;
+	}
+
+	@Override
+	public int size() {
+		return this.decoded().size();
+	}
+
+	@Override
+	public Set<Entry<String, V>> entrySet() {
+		return this.decoded().entrySet();
+	}
+
+	/**
+	 * @return Every pair, path params first and then the query's in order, decoded on the first call
+	 */
+	ParamMap<V> decoded() {
+		ParamMap<V> decoded = this._decoded;
+		if (decoded == null) {
+			decoded = decode(this._pathNames, this._pathValues, this._query);
+			this._decoded = decoded;
+		}
+		return decoded;
+	}
+
+	/**
+	 * @return The query's pairs decoded in order, after the given path params
+	 */
+	static <V> ParamMap<V> decode(String[] pathNames, Object[] pathValues, String query) {
+		int capacity = pathNames.length + 1;
+		for (int index = 0; index < query.length(); index++) {
+			if (query.charAt(index) == '&') {
+				capacity++;
+			}
+		}
+		String[] names = new String[capacity];
+		Object[] values = new Object[capacity];
+		System.arraycopy(pathNames, 0, names, 0, pathNames.length);
+		System.arraycopy(pathValues, 0, values, 0, pathNames.length);
+		int count = pathNames.length;
+		for (int start = 0; start < query.length(); start = pairEnd(query, start) + 1) {
+			int end = pairEnd(query, start);
+			if (end > start) {
+				names[count] = UrlTokenizer.decode(query, start, nameEnd(query, start, end), true);
+				values[count] = valueOfPair(query, start);
+				count++;
+			}
+		}
+		return new ParamMap<V>(names, values, count);
+	}
+
+	/*
+	 * The start of the last query pair with the given name, or -1 if there is none.
+	 */
+	private int lastPairNamed(Object name) {
+		if (!(name instanceof String)) {
+			return -1;
+		}
+		String wanted = (String) name;
+		int found = -1;
+		for (int start = 0; start < this._query.length(); start = pairEnd(this._query, start) + 1) {
+			int end = pairEnd(this._query, start);
+			if (end > start && this.nameEquals(start, nameEnd(this._query, start, end), wanted)) {
+				found = start;
+			}
+		}
+		return found;
+	}
+
+	private int lastPathParamNamed(Object name) {
+		for (int index = this._pathNames.length - 1; index >= 0; index--) {
+			if (this._pathNames[index].equals(name)) {
+				return index;
+			}
+		}
+		return -1;
+	}
+
+	/*
+	 * Compares an encoded name with a decoded one, decoding only if the name has escapes.
+	 */
+	private boolean nameEquals(int start, int end, String wanted) {
+		for (int index = start; index < end; index++) {
+			char c = this._query.charAt(index);
+			if (c == '%' || c == '+') {
+				return UrlTokenizer.decode(this._query, start, end, true).equals(wanted);
+			}
+		}
+		return end - start == wanted.length() && this._query.regionMatches(start, wanted, 0, end - start);
+	}
+
+	/*
+	 * The pair's decoded value; null for "name" and, as URLEncodedUtils parsed it, for "name=".
+	 */
+	private static String valueOfPair(String query, int start) {
+		int end = pairEnd(query, start);
+		int nameEnd = nameEnd(query, start, end);
+		return nameEnd >= end - 1 ? null : UrlTokenizer.decode(query, nameEnd + 1, end, true);
+	}
+
+	private static int pairEnd(String query, int start) {
+		int end = query.indexOf('&', start);
+		return end < 0 ? query.length() : end;
+	}
+
+	private static int nameEnd(String query, int start, int end) {
+		int separator = query.indexOf('=', start);
+		return separator < 0 || separator >= end ? end : separator;
+	}
+}
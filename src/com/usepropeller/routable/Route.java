@@ -0,0 +1,25 @@
+package com.usepropeller.routable;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Maps one or more URL formats to the annotated {@link android.app.Activity} at compile time.
+ * The routable compiler collects every annotated Activity into a generated {@link RouteTable},
+ * which is loaded with {@link Router#map(RouteTable)}:
+ *
+ * <pre>
+ * {@literal @}Route("users/:id")
+ * public class UserActivity extends Activity { ... }
+ * </pre>
+ */
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface Route {
+	/**
+	 * @return The URL formats being mapped; for example, "users/:id" or "groups/:id/topics/:topic_id"
+	 */
+	String[] value();
+}
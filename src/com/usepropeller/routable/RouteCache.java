@@ -0,0 +1,198 @@
+package com.usepropeller.routable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size-bounded, least-recently-used cache of resolved routes, keyed by cleaned URL.
+ * Counts hits, misses and evictions so the bound can be sized from real traffic.
+ *
+ * Large caches are split into independently locked segments so that threads resolving
+ * different URLs rarely contend; eviction is least-recently-used within each segment.
+ */
+class RouteCache<V> {
+	private static final int MAX_SEGMENTS = 16;
+	private static final int MIN_SEGMENT_SIZE = 16;
+
+	private static class Segment<V> extends LinkedHashMap<String, V> {
+		private static final long serialVersionUID = 4527014813651702447L;
+
+		final int maxSize;
+		long hitCount;
+		long missCount;
+		long evictionCount;
+
+		Segment(int maxSize) {
+			super(16, 0.75f, true);
+			this.maxSize = maxSize;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+			if (size() > this.maxSize) {
+				this.evictionCount++;
+				return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Decides what becomes of a cached entry in {@link RouteCache#rewrite(Rewriter)}.
+	 */
+	interface Rewriter<V> {
+		/**
+		 * @return The value to keep for key, or null to remove the entry
+		 */
+		V rewrite(String key, V value);
+	}
+
+	private volatile Segment<V>[] _segments;
+	private int _maxSize;
+	private long _retiredHitCount;
+	private long _retiredMissCount;
+	private long _retiredEvictionCount;
+
+	/**
+	 * @param maxSize The maximum number of entries to keep; 0 disables caching
+	 */
+	RouteCache(int maxSize) {
+		this._maxSize = checkSize(maxSize);
+		this._segments = createSegments(maxSize);
+	}
+
+	V get(String key) {
+		Segment<V> segment = segmentFor(key);
+		synchronized (segment) {
+			V value = segment.get(key);
+			if (value != null) {
+				segment.hitCount++;
+			} else {
+				segment.missCount++;
+			}
+			return value;
+		}
+	}
+
+	void put(String key, V value) {
+		Segment<V> segment = segmentFor(key);
+		if (segment.maxSize == 0) {
+			return;
+		}
+		synchronized (segment) {
+			segment.put(key, value);
+		}
+	}
+
+	void clear() {
+		for (Segment<V> segment : this._segments) {
+			synchronized (segment) {
+				segment.clear();
+			}
+		}
+	}
+
+	/*
+	 * Passes every entry through rewriter, one segment at a time. Neither counts as a lookup nor changes
+	 * the order of eviction.
+	 */
+	void rewrite(Rewriter<V> rewriter) {
+		for (Segment<V> segment : this._segments) {
+			synchronized (segment) {
+				Iterator<Map.Entry<String, V>> entries = segment.entrySet().iterator();
+				while (entries.hasNext()) {
+					Map.Entry<String, V> entry = entries.next();
+					V value = rewriter.rewrite(entry.getKey(), entry.getValue());
+					if (value == null) {
+						entries.remove();
+					} else if (value != entry.getValue()) {
+						entry.setValue(value);
+					}
+				}
+			}
+		}
+	}
+
+	/*
+	 * Entries carry over to the resized segments, least recently used first, so that each segment keeps its order;
+	 * entries a smaller cache has no room for are dropped without counting as evictions. Counters carry over.
+	 */
+	synchronized void setMaxSize(int maxSize) {
+		checkSize(maxSize);
+		if (maxSize == this._maxSize) {
+			return;
+		}
+		Segment<V>[] retired = this._segments;
+		Segment<V>[] segments = createSegments(maxSize);
+		for (Segment<V> segment : retired) {
+			synchronized (segment) {
+				this._retiredHitCount += segment.hitCount;
+				this._retiredMissCount += segment.missCount;
+				this._retiredEvictionCount += segment.evictionCount;
+				if (maxSize == 0) {
+					continue;
+				}
+				for (Map.Entry<String, V> entry : segment.entrySet()) {
+					segmentFor(segments, entry.getKey()).put(entry.getKey(), entry.getValue());
+				}
+			}
+		}
+		for (Segment<V> segment : segments) {
+			segment.evictionCount = 0;
+		}
+		this._maxSize = maxSize;
+		this._segments = segments;
+	}
+
+	synchronized int getMaxSize() {
+		return this._maxSize;
+	}
+
+	synchronized RouteResolver.CacheStats stats() {
+		int size = 0;
+		long hitCount = this._retiredHitCount;
+		long missCount = this._retiredMissCount;
+		long evictionCount = this._retiredEvictionCount;
+		for (Segment<V> segment : this._segments) {
+			synchronized (segment) {
+				size += segment.size();
+				hitCount += segment.hitCount;
+				missCount += segment.missCount;
+				evictionCount += segment.evictionCount;
+			}
+		}
+		return new RouteResolver.CacheStats(size, this._maxSize, hitCount, missCount, evictionCount);
+	}
+
+	private Segment<V> segmentFor(String key) {
+		return segmentFor(this._segments, key);
+	}
+
+	private static <V> Segment<V> segmentFor(Segment<V>[] segments, String key) {
+		int hash = key.hashCode();
+		hash ^= (hash >>> 16);
+		return segments[hash & (segments.length - 1)];
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static <V> Segment<V>[] createSegments(int maxSize) {
+		int count = 1;
+		while (count < MAX_SEGMENTS && maxSize / (count * 2) >= MIN_SEGMENT_SIZE) {
+			count *= 2;
+		}
+		Segment<V>[] segments = new Segment[count];
+		for (int index = 0; index < count; index++) {
+			int segmentSize = maxSize / count + (index < maxSize % count ? 1 : 0);
+			segments[index] = new Segment<V>(segmentSize);
+		}
+		return segments;
+	}
+
+	private static int checkSize(int maxSize) {
+		if (maxSize < 0) {
+			throw new IllegalArgumentException("Cache size must not be negative: " + maxSize);
+		}
+		return maxSize;
+	}
+}
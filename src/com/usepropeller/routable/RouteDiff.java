@@ -0,0 +1,61 @@
+package com.usepropeller.routable;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A set of route changes to apply in one step with {@link RouteResolver#update(RouteDiff)} or
+ * {@link Router#update(RouteDiff)}: routes to add, routes to replace, and routes to remove.
+ *
+ * <pre>
+ * router.update(new RouteDiff&lt;RouterOptions&gt;()
+ *         .map("campaigns/spring", new RouterOptions(SpringActivity.class))
+ *         .unmap("campaigns/winter"));
+ * </pre>
+ *
+ * @param <T> The type of the routes' targets
+ */
+public class RouteDiff<T> {
+	private final Map<String, T> _mapped = new LinkedHashMap<String, T>();
+	private final Set<String> _unmapped = new LinkedHashSet<String>();
+
+	/**
+	 * Add a route, or replace the route with the same format
+	 * @param format The URL format; for example, "users/:id"
+	 * @param target The route's target
+	 * @return This diff
+	 */
+	public RouteDiff<T> map(String format, T target) {
+		this._unmapped.remove(format);
+		this._mapped.put(format, target);
+		return this;
+	}
+
+	/**
+	 * Remove the route with a format; nothing happens if there is none
+	 * @param format The URL format exactly as it was mapped, except for a leading slash; for example, "users/:id"
+	 * @return This diff
+	 */
+	public RouteDiff<T> unmap(String format) {
+		this._mapped.remove(format);
+		this._unmapped.add(format);
+		return this;
+	}
+
+	/**
+	 * @return The routes to add or replace, keyed by format
+	 */
+	public Map<String, T> getMapped() {
+		return Collections.unmodifiableMap(this._mapped);
+	}
+
+	/**
+	 * @return The formats of the routes to remove
+	 */
+	public Set<String> getUnmapped() {
+		return Collections.unmodifiableSet(this._unmapped);
+	}
+}
@@ -0,0 +1,126 @@
+package com.usepropeller.routable;
+
+import java.util.Map;
+
+/**
+ * The immutable result of resolving a URL with a {@link RouteResolver}: the route that matched
+ * and the params extracted from the URL. Safe to cache and share between threads.
+ *
+ * Path params are kept in an array indexed by the route's param slots and the query is kept undecoded, so
+ * that cached matches stay small; the getters return read-only views that decode only what is read.
+ *
+ * @param <T> The type of the route's target; {@link Router.RouterOptions} for a {@link Router}
+ */
+public final class RouteMatch<T> {
+	private final RoutePattern _pattern;
+	private final T _target;
+	// Indexed by the pattern's param slots
+	private final String[] _pathValues;
+	// Undecoded, without "?"
+	private final String _query;
+	// The route table this match was resolved against, so that cached matches can be checked for staleness
+	final RouteTrie<T> routes;
+
+	RouteMatch(RoutePattern pattern, T target, String[] pathValues, String query, RouteTrie<T> routes) {
+		this._pattern = pattern;
+		this._target = target;
+		this._pathValues = pathValues;
+		this._query = query;
+		this.routes = routes;
+	}
+
+	/*
+	 * The same match, checked against a newer table; RouteResolver.update() caches it in place of this one
+	 * when the update can't change the match.
+	 */
+	RouteMatch<T> withRoutes(RouteTrie<T> routes) {
+		return new RouteMatch<T>(this._pattern, this._target, this._pathValues, this._query, routes);
+	}
+
+	/**
+	 * @return The format of the matched route, as it was mapped; for example, "users/:id"
+	 */
+	public String getFormat() {
+		return this._pattern.format;
+	}
+
+	/**
+	 * @return The target the matched route was mapped to
+	 */
+	public T getTarget() {
+		return this._target;
+	}
+
+	/**
+	 * @return The params taken from the URL's path (i.e. {"id" => "42"} for "users/42")
+	 */
+	public Map<String, String> getPathParams() {
+		return new ParamMap<String>(this._pattern.slotNames(), this._pathValues, this._pathValues.length);
+	}
+
+	/**
+	 * @return The params from the URL's query string, each decoded when it is first read
+	 */
+	public Map<String, String> getQueryParams() {
+		return new QueryParamMap<String>(this._query);
+	}
+
+	/**
+	 * @return The path and query params together; a query param replaces a path param with the same name
+	 */
+	public Map<String, String> getParams() {
+		return new QueryParamMap<String>(this._pattern.slotNames(), this._pathValues, this._query);
+	}
+
+	/**
+	 * @return The same params as {@link #getParams()}, except that path params constrained with {int} or {long}
+	 * are Integer and Long values
+	 */
+	public Map<String, Object> getTypedParams() {
+		Object[] values = new Object[this._pathValues.length];
+		for (int slot = 0; slot < values.length; slot++) {
+			values[slot] = this.typedPathParamAt(slot);
+		}
+		return new QueryParamMap<Object>(this._pattern.slotNames(), values, this._query);
+	}
+
+	/*
+	 * Whether getTypedParams() holds any values that aren't Strings
+	 */
+	boolean hasTypedParams() {
+		return this._pattern.isTyped();
+	}
+
+	/*
+	 * Raw access to the params for filling an Intent without building maps. Put in order, path params then
+	 * the decoded query pairs, later pairs replace earlier ones with the same name just as in getParams().
+	 */
+	int pathParamCount() {
+		return this._pathValues.length;
+	}
+
+	String pathParamNameAt(int slot) {
+		return this._pattern.slotNames()[slot];
+	}
+
+	String pathParamAt(int slot) {
+		return this._pathValues[slot];
+	}
+
+	Object typedPathParamAt(int slot) {
+		return this._pattern.typedSlotValue(slot, this._pathValues[slot]);
+	}
+
+	boolean hasQuery() {
+		return this._query.length() > 0;
+	}
+
+	ParamMap<String> decodedQueryParams() {
+		return QueryParamMap.decode(ParamMap.NO_NAMES, ParamMap.NO_NAMES, this._query);
+	}
+
+	@Override
+	public String toString() {
+		return "RouteMatch[" + this._pattern.format + ", " + this.getParams() + "]";
+	}
+}
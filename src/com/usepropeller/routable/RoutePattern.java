@@ -0,0 +1,317 @@
+package com.usepropeller.routable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * A route format compiled once, when it is mapped, into its segments and params.
+ *
+ * A param may carry a constraint in braces, which a URL segment must satisfy for the route to match:
+ * <ul>
+ * <li>":id{int}" and ":id{long}" match decimal numbers in range, and are converted to Integer and Long</li>
+ * <li>":sort{new|top|hot}" matches one of the listed words</li>
+ * <li>":name{[a-z]+}" matches a regular expression</li>
+ * </ul>
+ */
+class RoutePattern {
+	/**
+	 * A check on a param's URL segment, with the conversion of a matching segment to its typed value.
+	 */
+	static abstract class Constraint {
+		private final String _source;
+
+		Constraint(String source) {
+			this._source = source;
+		}
+
+		/**
+		 * @return The constraint as written in the format, without braces; equal sources are equal constraints
+		 */
+		String getSource() {
+			return this._source;
+		}
+
+		abstract boolean matches(String segment);
+
+		Object convert(String segment) {
+			return segment;
+		}
+	}
+
+	private static class IntConstraint extends Constraint {
+		IntConstraint() {
+			super("int");
+		}
+
+		@Override
+		boolean matches(String segment) {
+			return isDecimal(segment, Integer.MIN_VALUE, Integer.MAX_VALUE);
+		}
+
+		@Override
+		Object convert(String segment) {
+			return Integer.valueOf(segment);
+		}
+	}
+
+	private static class LongConstraint extends Constraint {
+		LongConstraint() {
+			super("long");
+		}
+
+		@Override
+		boolean matches(String segment) {
+			return isDecimal(segment, Long.MIN_VALUE, Long.MAX_VALUE);
+		}
+
+		@Override
+		Object convert(String segment) {
+			return Long.valueOf(segment);
+		}
+	}
+
+	private static class EnumConstraint extends Constraint {
+		private final Set<String> _values;
+
+		EnumConstraint(String source) {
+			super(source);
+			this._values = new HashSet<String>(Arrays.asList(source.split("\\|")));
+		}
+
+		@Override
+		boolean matches(String segment) {
+			return this._values.contains(segment);
+		}
+	}
+
+	private static class RegexConstraint extends Constraint {
+		private final Pattern _pattern;
+
+		RegexConstraint(String source) {
+			super(source);
+			this._pattern = Pattern.compile(source);
+		}
+
+		@Override
+		boolean matches(String segment) {
+			return this._pattern.matcher(segment).matches();
+		}
+	}
+
+	private static final Pattern ENUM_SOURCE = Pattern.compile("[A-Za-z0-9_\\-.~]+(\\|[A-Za-z0-9_\\-.~]+)*");
+
+	final String format;
+	final String[] segments;
+	// Indexed by segment; null for static segments
+	private final String[] _paramNames;
+	// Indexed by segment; null for static and unconstrained segments
+	private final Constraint[] _constraints;
+	private final boolean _typed;
+	// The params alone, in the order they appear: their names and the indexes of their segments
+	private final String[] _slotNames;
+	private final int[] _slotSegments;
+
+	private RoutePattern(String format, String[] segments, String[] paramNames, Constraint[] constraints,
+			boolean typed) {
+		this.format = format;
+		this.segments = segments;
+		this._paramNames = paramNames;
+		this._constraints = constraints;
+		this._typed = typed;
+		int slotCount = 0;
+		for (String name : paramNames) {
+			if (name != null) {
+				slotCount++;
+			}
+		}
+		this._slotNames = new String[slotCount];
+		this._slotSegments = new int[slotCount];
+		int slot = 0;
+		for (int index = 0; index < paramNames.length; index++) {
+			if (paramNames[index] != null) {
+				this._slotNames[slot] = paramNames[index];
+				this._slotSegments[slot] = index;
+				slot++;
+			}
+		}
+	}
+
+	/**
+	 * @param format The URL format; for example, "users/:id{int}" or "/groups/:id/topics/:topic_id"
+	 * @throws IllegalArgumentException If the format has an unterminated or invalid constraint
+	 */
+	static RoutePattern compile(String format) {
+		return compile(format, format);
+	}
+
+	/**
+	 * @param format The URL format as mapped; for example, "myapp://users/:id"
+	 * @param path The part of the format matched against URL paths; for example, "users/:id"
+	 * @throws IllegalArgumentException If the format has an unterminated or invalid constraint
+	 */
+	static RoutePattern compile(String format, String path) {
+		String[] segments = split(RouteResolver.cleanUrl(path));
+		String[] paramNames = new String[segments.length];
+		Constraint[] constraints = new Constraint[segments.length];
+		boolean typed = false;
+		for (int index = 0; index < segments.length; index++) {
+			String segment = segments[index];
+			if (!RouteTrie.isParam(segment)) {
+				continue;
+			}
+			int brace = segment.indexOf('{');
+			if (brace < 0) {
+				paramNames[index] = segment.substring(1);
+				continue;
+			}
+			if (!segment.endsWith("}") || brace == 1 || brace == segment.length() - 2) {
+				throw new IllegalArgumentException("Invalid param \"" + segment + "\" in route " + format);
+			}
+			paramNames[index] = segment.substring(1, brace);
+			constraints[index] = constraintFor(segment.substring(brace + 1, segment.length() - 1), format);
+			typed |= constraints[index] instanceof IntConstraint || constraints[index] instanceof LongConstraint;
+		}
+		return new RoutePattern(format, segments, paramNames, constraints, typed);
+	}
+
+	static Constraint constraintFor(String source, String format) {
+		if (source.equals("int")) {
+			return new IntConstraint();
+		}
+		if (source.equals("long")) {
+			return new LongConstraint();
+		}
+		if (ENUM_SOURCE.matcher(source).matches()) {
+			return new EnumConstraint(source);
+		}
+		try {
+			return new RegexConstraint(source);
+		} catch (RuntimeException e) {
+			throw new IllegalArgumentException("Invalid constraint {" + source + "} in route " + format, e);
+		}
+	}
+
+	/*
+	 * Splits a format on "/", except inside a constraint's braces, dropping trailing empty segments
+	 * like String.split does.
+	 */
+	private static String[] split(String format) {
+		List<String> segments = new ArrayList<String>();
+		int depth = 0;
+		int start = 0;
+		for (int index = 0; index < format.length(); index++) {
+			char c = format.charAt(index);
+			if (c == '{') {
+				depth++;
+			} else if (c == '}' && depth > 0) {
+				depth--;
+			} else if (c == '/' && depth == 0) {
+				segments.add(format.substring(start, index));
+				start = index + 1;
+			}
+		}
+		segments.add(format.substring(start));
+		if (segments.size() > 1) {
+			while (!segments.isEmpty() && segments.get(segments.size() - 1).length() == 0) {
+				segments.remove(segments.size() - 1);
+			}
+		}
+		return segments.toArray(new String[segments.size()]);
+	}
+
+	boolean isParam(int index) {
+		return this._paramNames[index] != null;
+	}
+
+	/**
+	 * @return The constraint on the param at index, or null if it has none
+	 */
+	Constraint constraint(int index) {
+		return this._constraints[index];
+	}
+
+	/**
+	 * @return Whether any param converts to a type other than String
+	 */
+	boolean isTyped() {
+		return this._typed;
+	}
+
+	/**
+	 * @param givenSegments The path segments of a URL (i.e. ["users", "42"])
+	 * @return Whether this pattern matches the segments on its own, regardless of other routes
+	 */
+	boolean matches(String[] givenSegments) {
+		if (givenSegments.length != this.segments.length) {
+			return false;
+		}
+		for (int index = 0; index < givenSegments.length; index++) {
+			if (this._paramNames[index] == null) {
+				if (!this.segments[index].equals(givenSegments[index])) {
+					return false;
+				}
+			} else if (this._constraints[index] != null && !this._constraints[index].matches(givenSegments[index])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return The names of the params, indexed by slot; must not be modified
+	 */
+	String[] slotNames() {
+		return this._slotNames;
+	}
+
+	/**
+	 * @param givenSegments The path segments of a URL this pattern matched (i.e. ["users", "42"])
+	 * @return The URL's value for each param, indexed by slot (i.e. ["42"] for "users/:id")
+	 */
+	String[] slotValues(String[] givenSegments) {
+		String[] values = new String[this._slotSegments.length];
+		for (int slot = 0; slot < values.length; slot++) {
+			values[slot] = givenSegments[this._slotSegments[slot]];
+		}
+		return values;
+	}
+
+	/**
+	 * @return A slot's value converted by its constraint (i.e. 42 for "42" and ":id{int}")
+	 */
+	Object typedSlotValue(int slot, String value) {
+		Constraint constraint = this._constraints[this._slotSegments[slot]];
+		return constraint == null ? value : constraint.convert(value);
+	}
+
+	/*
+	 * Checks that value is a decimal number within [min, max] without parsing it into a boxed number
+	 * or throwing.
+	 */
+	static boolean isDecimal(String value, long min, long max) {
+		int length = value.length();
+		boolean negative = length > 0 && value.charAt(0) == '-';
+		int index = negative ? 1 : 0;
+		if (index == length) {
+			return false;
+		}
+		long limit = negative ? min : -max;
+		long result = 0;
+		for (; index < length; index++) {
+			int digit = value.charAt(index) - '0';
+			if (digit < 0 || digit > 9) {
+				return false;
+			}
+			// Accumulate negatively, since |Long.MIN_VALUE| > Long.MAX_VALUE
+			if (result < (limit + digit) / 10) {
+				return false;
+			}
+			result = result * 10 - digit;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,85 @@
+package com.usepropeller.routable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counts how often URLs are opened, in bounded memory, to find the URLs worth resolving ahead of time.
+ *
+ * Tracks a few times more URLs than it reports. Once full, a new URL replaces the least opened one and
+ * inherits its count (the "space-saving" algorithm), so URLs that are opened often always make it in,
+ * while one-off URLs keep replacing each other.
+ */
+class RouteProfile {
+	private static final int TRACKED_PER_REPORTED = 4;
+
+	private volatile int _size;
+	private final Map<String, long[]> _counts = new HashMap<String, long[]>();
+
+	/**
+	 * @param size The number of URLs to report; 0 stops recording and forgets every count
+	 */
+	synchronized void setSize(int size) {
+		if (size < 0) {
+			throw new IllegalArgumentException("Profile size must not be negative: " + size);
+		}
+		this._size = size;
+		if (size == 0) {
+			this._counts.clear();
+		}
+	}
+
+	int getSize() {
+		return this._size;
+	}
+
+	void record(String url) {
+		if (this._size == 0) {
+			return;
+		}
+		synchronized (this) {
+			long[] count = this._counts.get(url);
+			if (count != null) {
+				count[0]++;
+				return;
+			}
+			long inherited = 0;
+			if (this._counts.size() >= this._size * TRACKED_PER_REPORTED) {
+				String leastOpened = null;
+				long least = Long.MAX_VALUE;
+				for (Map.Entry<String, long[]> entry : this._counts.entrySet()) {
+					if (entry.getValue()[0] < least) {
+						least = entry.getValue()[0];
+						leastOpened = entry.getKey();
+					}
+				}
+				this._counts.remove(leastOpened);
+				inherited = least;
+			}
+			this._counts.put(url, new long[] { inherited + 1 });
+		}
+	}
+
+	/**
+	 * @return Up to the profile's size of the most opened URLs, most opened first
+	 */
+	synchronized List<String> hottest() {
+		List<Map.Entry<String, long[]>> entries = new ArrayList<Map.Entry<String, long[]>>(this._counts.entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<String, long[]>>() {
+			@Override
+			public int compare(Map.Entry<String, long[]> left, Map.Entry<String, long[]> right) {
+				long difference = right.getValue()[0] - left.getValue()[0];
+				return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+			}
+		});
+		List<String> urls = new ArrayList<String>(Math.min(this._size, entries.size()));
+		for (int index = 0; index < entries.size() && index < this._size; index++) {
+			urls.add(entries.get(index).getKey());
+		}
+		return urls;
+	}
+}
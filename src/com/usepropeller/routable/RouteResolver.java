@@ -0,0 +1,627 @@
+package com.usepropeller.routable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Matches URLs against mapped route formats without touching any Android classes, so the same
+ * routes can be validated on a plain JVM (for example, every deep link in an email campaign).
+ * {@link Router} uses one to resolve URLs before opening them.
+ *
+ * A format may start with a scheme, as in "myapp://users/:id", or with an http or https scheme and host, as in
+ * "https://shop.example.com/products/:id". Such routes go in a separate table for their scheme or host, so a URL
+ * is only matched against the routes for its own scheme or host. A URL whose scheme and host have no routes
+ * is matched against the routes without a scheme, with its scheme stripped ("myapp://users/16" as "users/16").
+ *
+ * Routes may be mapped and resolved from any thread. Mapping publishes a new route table;
+ * resolution reads whichever table is current without locking.
+ *
+ * @param <T> The type of the routes' targets
+ */
+public class RouteResolver<T> {
+	/**
+	 * The number of resolved URLs a resolver caches unless told otherwise
+	 */
+	public static final int DEFAULT_CACHE_SIZE = 256;
+
+	/**
+	 * The number of unmatched URLs a resolver remembers unless told otherwise
+	 */
+	public static final int DEFAULT_NEGATIVE_CACHE_SIZE = 128;
+
+	// Small enough to spread a catalog over every thread, large enough that scheduling is negligible
+	private static final int MIN_BULK_CHUNK_SIZE = 1024;
+
+	/**
+	 * A snapshot of the resolution cache's counters, as returned by {@link RouteResolver#getCacheStats()}
+	 */
+	public static class CacheStats {
+		private final int _size;
+		private final int _maxSize;
+		private final long _hitCount;
+		private final long _missCount;
+		private final long _evictionCount;
+
+		CacheStats(int size, int maxSize, long hitCount, long missCount, long evictionCount) {
+			this._size = size;
+			this._maxSize = maxSize;
+			this._hitCount = hitCount;
+			this._missCount = missCount;
+			this._evictionCount = evictionCount;
+		}
+
+		/**
+		 * @return The number of URLs currently cached
+		 */
+		public int getSize() { return this._size; }
+
+		/**
+		 * @return The maximum number of URLs the cache will hold
+		 */
+		public int getMaxSize() { return this._maxSize; }
+
+		/**
+		 * @return The number of lookups that were answered from the cache
+		 */
+		public long getHitCount() { return this._hitCount; }
+
+		/**
+		 * @return The number of lookups that had to match the URL against the routes
+		 */
+		public long getMissCount() { return this._missCount; }
+
+		/**
+		 * @return The number of URLs dropped from the cache to stay within its maximum size
+		 */
+		public long getEvictionCount() { return this._evictionCount; }
+
+		@Override
+		public String toString() {
+			return "CacheStats[size=" + this._size + ", maxSize=" + this._maxSize
+					+ ", hits=" + this._hitCount + ", misses=" + this._missCount
+					+ ", evictions=" + this._evictionCount + "]";
+		}
+	}
+
+	// The route table for each scheme or scheme and host, keyed by shardKey(); routes without a scheme are under "".
+	// Replaced, never mutated, by map(); resolution reads whichever tables are current without locking
+	private volatile Map<String, RouteTrie<T>> _routes =
+			Collections.singletonMap("", new RouteTrie<T>());
+	private final RouteCache<RouteMatch<T>> _cachedRoutes = new RouteCache<RouteMatch<T>>(DEFAULT_CACHE_SIZE);
+	// Unmatched URLs, mapped to the route table they failed to match
+	private final RouteCache<RouteTrie<T>> _missedRoutes = new RouteCache<RouteTrie<T>>(DEFAULT_NEGATIVE_CACHE_SIZE);
+	// Templates for mapped formats, built on first use, with the route table they were found in
+	private final Map<String, CachedTemplate<T>> _templates = new ConcurrentHashMap<String, CachedTemplate<T>>();
+
+	private static class CachedTemplate<T> {
+		final RoutePattern pattern;
+		final UrlTemplate template;
+		final RouteTrie<T> routes;
+
+		CachedTemplate(RoutePattern pattern, UrlTemplate template, RouteTrie<T> routes) {
+			this.pattern = pattern;
+			this.template = template;
+			this.routes = routes;
+		}
+	}
+
+	/**
+	 * Map a URL format to a target
+	 * @param format The URL being mapped; for example, "users/:id", "users/:id{int}" or "groups/:id/topics/:topic_id"
+	 * @param target The target returned in the {@link RouteMatch} when the format matches
+	 * @throws IllegalArgumentException If a param's constraint is invalid
+	 */
+	public void map(String format, T target) {
+		RouteTrie.Entry<T> entry = entryFor(format, target);
+		String key = shardKey(format, schemeEnd(format));
+		synchronized (this) {
+			Map<String, RouteTrie<T>> routes = new HashMap<String, RouteTrie<T>>(this._routes);
+			routes.put(key, shard(routes, key).put(entry));
+			this._routes = routes;
+		}
+		this._cachedRoutes.clear();
+		this._missedRoutes.clear();
+	}
+
+	/**
+	 * Map many URL formats in one step
+	 * @param routes The targets to map, keyed by URL format
+	 */
+	public void map(Map<String, T> routes) {
+		Map<String, List<RouteTrie.Entry<T>>> entriesByShard = this.entriesByShard(routes);
+		synchronized (this) {
+			Map<String, RouteTrie<T>> shards = new HashMap<String, RouteTrie<T>>(this._routes);
+			for (Entry<String, List<RouteTrie.Entry<T>>> entries : entriesByShard.entrySet()) {
+				shards.put(entries.getKey(), shard(shards, entries.getKey()).putAll(entries.getValue()));
+			}
+			this._routes = shards;
+		}
+		this._cachedRoutes.clear();
+		this._missedRoutes.clear();
+	}
+
+	/**
+	 * Apply a set of route changes as one new route table. Only the parts of the table under changed routes
+	 * are rebuilt, and only cached results the changes could affect are dropped; resolution sees either the old
+	 * table or the new one, never a mix.
+	 * @param diff The routes to add, replace and remove
+	 * @throws IllegalArgumentException If a param's constraint is invalid, in which case nothing changes
+	 */
+	public void update(RouteDiff<T> diff) {
+		final Map<String, List<RouteTrie.Entry<T>>> added = this.entriesByShard(diff.getMapped());
+		final Map<String, List<RoutePattern>> removed = new HashMap<String, List<RoutePattern>>();
+		for (String format : diff.getUnmapped()) {
+			String key = shardKey(format, schemeEnd(format));
+			List<RoutePattern> patterns = removed.get(key);
+			if (patterns == null) {
+				patterns = new ArrayList<RoutePattern>();
+				removed.put(key, patterns);
+			}
+			patterns.add(RoutePattern.compile(format, pathOf(format)));
+		}
+
+		synchronized (this) {
+			final Map<String, RouteTrie<T>> oldShards = this._routes;
+			final Map<String, RouteTrie<T>> shards = new HashMap<String, RouteTrie<T>>(oldShards);
+			Set<String> keys = new HashSet<String>(added.keySet());
+			keys.addAll(removed.keySet());
+			for (String key : keys) {
+				RouteTrie<T> routes = shard(shards, key);
+				if (removed.containsKey(key)) {
+					routes = routes.removeAll(removed.get(key));
+				}
+				if (added.containsKey(key)) {
+					routes = routes.putAll(added.get(key));
+				}
+				if (routes.isEmpty() && key.length() > 0) {
+					shards.remove(key);
+				} else {
+					shards.put(key, routes);
+				}
+			}
+			this._routes = shards;
+
+			// Still under the lock, so that a later update's invalidation can't run before this one's
+			this._cachedRoutes.rewrite(new RouteCache.Rewriter<RouteMatch<T>>() {
+				@Override
+				public RouteMatch<T> rewrite(String url, RouteMatch<T> match) {
+					RouteTrie<T> routes = RouteResolver.revalidate(url, match.routes, match.getFormat(),
+							oldShards, shards, added, removed);
+					if (routes == null) {
+						return null;
+					}
+					return routes == match.routes ? match : match.withRoutes(routes);
+				}
+			});
+			this._missedRoutes.rewrite(new RouteCache.Rewriter<RouteTrie<T>>() {
+				@Override
+				public RouteTrie<T> rewrite(String url, RouteTrie<T> routes) {
+					return RouteResolver.revalidate(url, routes, null, oldShards, shards, added, removed);
+				}
+			});
+		}
+	}
+
+	/*
+	 * Decides whether a result cached for url against the routes table is still right after an update from
+	 * oldShards to newShards: returns the table to tag it with now, or null if it must be dropped. A match can
+	 * only change if its own route was removed or replaced, or if an added route matches the URL.
+	 */
+	private static <T> RouteTrie<T> revalidate(String url, RouteTrie<T> routes, String matchedFormat,
+			Map<String, RouteTrie<T>> oldShards, Map<String, RouteTrie<T>> newShards,
+			Map<String, List<RouteTrie.Entry<T>>> added, Map<String, List<RoutePattern>> removed) {
+		String key = routingKey(url, oldShards);
+		if (routes != oldShards.get(key)) {
+			return null;
+		}
+		if (!key.equals(routingKey(url, newShards))) {
+			return null;
+		}
+		RouteTrie<T> newRoutes = newShards.get(key);
+		if (newRoutes == routes) {
+			return routes;
+		}
+
+		if (matchedFormat != null && removed.containsKey(key)) {
+			String format = cleanUrl(matchedFormat);
+			for (RoutePattern pattern : removed.get(key)) {
+				if (cleanUrl(pattern.format).equals(format)) {
+					return null;
+				}
+			}
+		}
+		if (added.containsKey(key)) {
+			int pathStart = pathStart(url, oldShards);
+			String[] segments = new UrlTokenizer(pathStart == 0 ? url : url.substring(pathStart)).pathSegments();
+			for (RouteTrie.Entry<T> entry : added.get(key)) {
+				if (entry.pattern.matches(segments)) {
+					return null;
+				}
+			}
+		}
+		return newRoutes;
+	}
+
+	private Map<String, List<RouteTrie.Entry<T>>> entriesByShard(Map<String, T> routes) {
+		Map<String, List<RouteTrie.Entry<T>>> entriesByShard = new LinkedHashMap<String, List<RouteTrie.Entry<T>>>();
+		for (Entry<String, T> route : routes.entrySet()) {
+			String key = shardKey(route.getKey(), schemeEnd(route.getKey()));
+			List<RouteTrie.Entry<T>> entries = entriesByShard.get(key);
+			if (entries == null) {
+				entries = new ArrayList<RouteTrie.Entry<T>>();
+				entriesByShard.put(key, entries);
+			}
+			entries.add(entryFor(route.getKey(), route.getValue()));
+		}
+		return entriesByShard;
+	}
+
+	/*
+	 * Adds the routes of a table written by RouteTableWriter, decoding their nodes and targets only as they're
+	 * used. A shard that already has routes gets a copy of them on top of the table's, so they take precedence.
+	 */
+	void map(ByteBuffer table, BinaryRouteTable.TargetDecoder<T> decoder) {
+		Map<String, RouteTrie<T>> tables = BinaryRouteTable.load(table, decoder);
+		synchronized (this) {
+			Map<String, RouteTrie<T>> shards = new HashMap<String, RouteTrie<T>>(this._routes);
+			for (Entry<String, RouteTrie<T>> loaded : tables.entrySet()) {
+				RouteTrie<T> routes = shards.get(loaded.getKey());
+				shards.put(loaded.getKey(), routes == null || routes.isEmpty()
+						? loaded.getValue() : loaded.getValue().putAll(routes.entries()));
+			}
+			this._routes = shards;
+		}
+		this._cachedRoutes.clear();
+		this._missedRoutes.clear();
+	}
+
+	/*
+	 * The current route table of each shard; never modified.
+	 */
+	Map<String, RouteTrie<T>> routes() {
+		return this._routes;
+	}
+
+	/**
+	 * Templates are cached, so building many URLs for the same format only splits it up once.
+	 * @param format A format exactly as it was mapped, except for a leading slash; for example, "users/:id"
+	 * @return A {@link UrlTemplate} for building URLs that resolve to the format's route, or null if no route
+	 * is mapped with the format
+	 * @throws IllegalArgumentException If a param's constraint is invalid
+	 */
+	public UrlTemplate urlTemplate(String format) {
+		RouteTrie<T> routes = this._routes.get(shardKey(format, schemeEnd(format)));
+		CachedTemplate<T> cached = this._templates.get(format);
+		if (cached != null && cached.routes == routes) {
+			return cached.template;
+		}
+
+		// The routes changed since the template was cached, or it never was; check the format is still mapped
+		RoutePattern pattern = cached == null ? RoutePattern.compile(format, pathOf(format)) : cached.pattern;
+		if (routes == null || routes.entryFor(pattern) == null) {
+			this._templates.remove(format);
+			return null;
+		}
+		UrlTemplate template = cached == null ? new UrlTemplate(pattern) : cached.template;
+		this._templates.put(format, new CachedTemplate<T>(pattern, template, routes));
+		return template;
+	}
+
+	/**
+	 * Unmatched URLs are remembered, up to the negative cache size, so that repeatedly resolving the same
+	 * unknown URL is cheap until another route is mapped.
+	 * @param url The URL; for example, "users/16" or "groups/5/topics/20?sort=new"
+	 * @return The {@link RouteMatch} for the URL, or null if no route matches it
+	 */
+	public RouteMatch<T> resolve(String url) {
+		return resolve(url, null);
+	}
+
+	/*
+	 * Resolves url, reporting its timing and outcome to listener unless it is null.
+	 */
+	RouteMatch<T> resolve(String url, RouterMetricsListener listener) {
+		long startTime = 0;
+		if (listener != null) {
+			listener.onResolveStart(url);
+			startTime = System.nanoTime();
+		}
+		final String cleanedUrl = cleanUrl(url);
+
+		Map<String, RouteTrie<T>> shards = this._routes;
+		int pathStart = pathStart(cleanedUrl, shards);
+		RouteTrie<T> routes = routesFor(cleanedUrl, shards);
+		RouteMatch<T> cachedMatch = this._cachedRoutes.get(cleanedUrl);
+		if (cachedMatch != null && cachedMatch.routes == routes) {
+			if (listener != null) {
+				listener.onResolveEnd(url, cachedMatch.getFormat(), true, System.nanoTime() - startTime);
+			}
+			return cachedMatch;
+		}
+		if (this._missedRoutes.get(cleanedUrl) == routes) {
+			if (listener != null) {
+				listener.onRouteNotFound(url, System.nanoTime() - startTime);
+			}
+			return null;
+		}
+
+		RouteMatch<T> match = match(cleanedUrl, pathStart, routes);
+		if (match != null) {
+			this._cachedRoutes.put(cleanedUrl, match);
+		} else {
+			this._missedRoutes.put(cleanedUrl, routes);
+		}
+		if (listener != null) {
+			long duration = System.nanoTime() - startTime;
+			if (match != null) {
+				listener.onResolveEnd(url, match.getFormat(), false, duration);
+			} else {
+				listener.onRouteNotFound(url, duration);
+			}
+		}
+		return match;
+	}
+
+	/**
+	 * Resolve many URLs in parallel, on as many threads as there are processors.
+	 * @see #resolveAll(Collection, Executor)
+	 */
+	public List<RouteMatch<T>> resolveAll(Collection<String> urls) throws InterruptedException {
+		int threadCount = Runtime.getRuntime().availableProcessors();
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+		try {
+			return resolveAll(urls, executor, threadCount);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Resolve many URLs in parallel, such as a catalog of deep links to validate. Every URL is resolved
+	 * against the same route table, even if routes are mapped meanwhile, and the resolution cache is
+	 * neither read nor filled.
+	 * @param urls The URLs to resolve
+	 * @param executor The {@link Executor} to resolve the URLs on
+	 * @return The {@link RouteMatch} for each URL, in the order of urls, with null for URLs no route matches
+	 * @throws InterruptedException If the calling thread is interrupted while waiting for the results
+	 */
+	public List<RouteMatch<T>> resolveAll(Collection<String> urls, Executor executor) throws InterruptedException {
+		return resolveAll(urls, executor, Runtime.getRuntime().availableProcessors());
+	}
+
+	private List<RouteMatch<T>> resolveAll(Collection<String> urls, Executor executor, int threadCount)
+			throws InterruptedException {
+		final String[] givenUrls = urls.toArray(new String[urls.size()]);
+		final Object[] matches = new Object[givenUrls.length];
+		final Map<String, RouteTrie<T>> shards = this._routes;
+
+		int chunkSize = Math.max(MIN_BULK_CHUNK_SIZE, givenUrls.length / (threadCount * 4) + 1);
+		int chunkCount = (givenUrls.length + chunkSize - 1) / chunkSize;
+		final CountDownLatch remainingChunks = new CountDownLatch(chunkCount);
+		final AtomicReference<RuntimeException> failure = new AtomicReference<RuntimeException>();
+		for (int chunk = 0; chunk < chunkCount; chunk++) {
+			final int start = chunk * chunkSize;
+			final int end = Math.min(givenUrls.length, start + chunkSize);
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						for (int index = start; index < end; index++) {
+							String cleanedUrl = cleanUrl(givenUrls[index]);
+							matches[index] = match(cleanedUrl, pathStart(cleanedUrl, shards), routesFor(cleanedUrl, shards));
+						}
+					} catch (RuntimeException e) {
+						failure.compareAndSet(null, e);
+					} finally {
+						remainingChunks.countDown();
+					}
+				}
+			});
+		}
+		remainingChunks.await();
+
+		if (failure.get() != null) {
+			throw failure.get();
+		}
+		List<RouteMatch<T>> result = new ArrayList<RouteMatch<T>>(matches.length);
+		for (Object match : matches) {
+			@SuppressWarnings("unchecked")
+			RouteMatch<T> typedMatch = (RouteMatch<T>) match;
+			result.add(typedMatch);
+		}
+		return result;
+	}
+
+	private RouteMatch<T> match(String cleanedUrl, int pathStart, RouteTrie<T> routes) {
+		UrlTokenizer tokenizer = new UrlTokenizer(pathStart == 0 ? cleanedUrl : cleanedUrl.substring(pathStart));
+		String[] givenParts = tokenizer.pathSegments();
+
+		RouteTrie.Entry<T> route = routes.find(givenParts);
+		if (route == null) {
+			return null;
+		}
+
+		return new RouteMatch<T>(route.pattern, route.value, route.pattern.slotValues(givenParts),
+				tokenizer.query(), routes);
+	}
+
+	/**
+	 * Bound the number of resolved URLs the resolver keeps; the least recently resolved URLs are evicted first
+	 * @param size The maximum number of URLs to cache, or 0 to disable caching
+	 */
+	public void setCacheSize(int size) {
+		this._cachedRoutes.setMaxSize(size);
+	}
+
+	/**
+	 * @return The maximum number of resolved URLs the resolver caches
+	 */
+	public int getCacheSize() {
+		return this._cachedRoutes.getMaxSize();
+	}
+
+	/**
+	 * @return The current size and hit, miss and eviction counts of the resolution cache
+	 */
+	public CacheStats getCacheStats() {
+		return this._cachedRoutes.stats();
+	}
+
+	/**
+	 * Bound the number of unmatched URLs the resolver remembers
+	 * @param size The maximum number of URLs to remember, or 0 to disable negative caching
+	 */
+	public void setNegativeCacheSize(int size) {
+		this._missedRoutes.setMaxSize(size);
+	}
+
+	/**
+	 * @return The maximum number of unmatched URLs the resolver remembers
+	 */
+	public int getNegativeCacheSize() {
+		return this._missedRoutes.getMaxSize();
+	}
+
+	/**
+	 * @return The current size and hit, miss and eviction counts of the cache of unmatched URLs
+	 */
+	public CacheStats getNegativeCacheStats() {
+		return this._missedRoutes.stats();
+	}
+
+	private RouteTrie.Entry<T> entryFor(String format, T target) {
+		return new RouteTrie.Entry<T>(RoutePattern.compile(format, pathOf(format)), target);
+	}
+
+	/*
+	 * The part of a format that is matched against URLs in its shard; for example, "users/:id" for
+	 * "myapp://users/:id" or "products/:id" for "https://shop.example.com/products/:id".
+	 */
+	static String pathOf(String format) {
+		int schemeEnd = schemeEnd(format);
+		return schemeEnd < 0 ? format : format.substring(pathStart(format, schemeEnd, true));
+	}
+
+	private static <T> RouteTrie<T> shard(Map<String, RouteTrie<T>> shards, String key) {
+		RouteTrie<T> routes = shards.get(key);
+		return routes == null ? new RouteTrie<T>() : routes;
+	}
+
+	/*
+	 * The table to match url against: its scheme's or host's, if it has any routes, or else the table of routes
+	 * without a scheme.
+	 */
+	private static <T> RouteTrie<T> routesFor(String url, Map<String, RouteTrie<T>> shards) {
+		return shards.get(routingKey(url, shards));
+	}
+
+	/*
+	 * The key of the shard url is matched in: its scheme's or host's if that has routes, or else "".
+	 */
+	private static <T> String routingKey(String url, Map<String, RouteTrie<T>> shards) {
+		int schemeEnd = schemeEnd(url);
+		if (schemeEnd >= 0) {
+			String key = shardKey(url, schemeEnd);
+			if (shards.containsKey(key)) {
+				return key;
+			}
+		}
+		return "";
+	}
+
+	/*
+	 * Where the part of url matched by routesFor(url, shards) starts: after the host if its host has routes,
+	 * otherwise just after the scheme.
+	 */
+	private static <T> int pathStart(String url, Map<String, RouteTrie<T>> shards) {
+		int schemeEnd = schemeEnd(url);
+		if (schemeEnd < 0) {
+			return 0;
+		}
+		return pathStart(url, schemeEnd, shards.containsKey(shardKey(url, schemeEnd)));
+	}
+
+	private static int pathStart(String url, int schemeEnd, boolean sharded) {
+		int start = schemeEnd + 3;
+		if (!sharded || !isWebScheme(url, schemeEnd)) {
+			return start;
+		}
+		int hostEnd = hostEnd(url, start);
+		return hostEnd < url.length() && url.charAt(hostEnd) == '/' ? hostEnd + 1 : hostEnd;
+	}
+
+	/*
+	 * "myapp://" for custom schemes and "https://shop.example.com" for http and https, both lower case;
+	 * "" for URLs without a scheme.
+	 */
+	static String shardKey(String url, int schemeEnd) {
+		if (schemeEnd < 0) {
+			return "";
+		}
+		if (!isWebScheme(url, schemeEnd)) {
+			return url.substring(0, schemeEnd + 3).toLowerCase(Locale.US);
+		}
+		return url.substring(0, hostEnd(url, schemeEnd + 3)).toLowerCase(Locale.US);
+	}
+
+	/*
+	 * The index of the "://" after url's scheme, or -1 if url doesn't start with one.
+	 */
+	static int schemeEnd(String url) {
+		int length = url.length();
+		for (int index = 0; index < length; index++) {
+			char c = url.charAt(index);
+			if (c == ':') {
+				return index > 0 && url.startsWith("//", index + 1) ? index : -1;
+			}
+			boolean letter = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+			if (!letter && (index == 0 || !((c >= '0' && c <= '9') || c == '+' || c == '-' || c == '.'))) {
+				return -1;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean isWebScheme(String url, int schemeEnd) {
+		return (schemeEnd == 4 && url.regionMatches(true, 0, "http", 0, 4))
+				|| (schemeEnd == 5 && url.regionMatches(true, 0, "https", 0, 5));
+	}
+
+	private static int hostEnd(String url, int start) {
+		for (int index = start; index < url.length(); index++) {
+			char c = url.charAt(index);
+			if (c == '/' || c == '?' || c == '#') {
+				return index;
+			}
+		}
+		return url.length();
+	}
+
+	/**
+	 * Clean up url
+	 * @param url
+	 * @return cleaned url
+	 */
+	static String cleanUrl(String url) {
+		if (url.startsWith("/")) {
+			return url.substring(1, url.length());
+		}
+		return url;
+	}
+}
@@ -0,0 +1,16 @@
+package com.usepropeller.routable;
+
+import java.util.Map;
+
+import com.usepropeller.routable.Router.RouterOptions;
+
+/**
+ * A prebuilt set of routes, usually generated from {@link Route} annotations by the routable
+ * compiler, that can be added to a {@link Router} in one step with {@link Router#map(RouteTable)}.
+ */
+public interface RouteTable {
+	/**
+	 * @param routes The map to put each route into, keyed by URL format
+	 */
+	void loadInto(Map<String, RouterOptions> routes);
+}
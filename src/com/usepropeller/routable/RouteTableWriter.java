@@ -0,0 +1,88 @@
+package com.usepropeller.routable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Writes routes to Activities as a compact binary route table, which a {@link Router} can load with
+ * {@link Router#map(java.io.File)} or {@link Router#map(java.nio.ByteBuffer)} without decoding a route
+ * until a URL needs it. Doesn't use any Android classes, so tables can be generated on a server or at build time:
+ *
+ * <pre>
+ * new RouteTableWriter()
+ *         .map("users/:id{int}", "com.example.UserActivity")
+ *         .map("https://shop.example.com/products/:id", "com.example.ProductActivity")
+ *         .writeTo(new FileOutputStream("routes.bin"));
+ * </pre>
+ */
+public class RouteTableWriter {
+	private final Map<String, BinaryRouteTable.Target> _routes = new LinkedHashMap<String, BinaryRouteTable.Target>();
+
+	/**
+	 * @param format The URL format; for example, "users/:id" or "myapp://users/:id{int}"
+	 * @param className The fully qualified name of the Activity to open
+	 * @return This writer
+	 */
+	public RouteTableWriter map(String format, String className) {
+		return this.map(format, className, null);
+	}
+
+	/**
+	 * @param format The URL format; for example, "users/:id" or "myapp://users/:id{int}"
+	 * @param className The fully qualified name of the Activity to open
+	 * @param defaultParams Extras to add to every Intent for the route, or null
+	 * @return This writer
+	 * @throws IllegalArgumentException If the format has an invalid constraint, or a default param's name or value
+	 * is null
+	 */
+	public RouteTableWriter map(String format, String className, Map<String, String> defaultParams) {
+		if (className == null) {
+			throw new IllegalArgumentException("No Activity class name for route " + format);
+		}
+		RoutePattern.compile(format, RouteResolver.pathOf(format));
+		Map<String, String> params = null;
+		if (defaultParams != null) {
+			// A table can't hold nulls; checked here so that writeTo doesn't fail part way through a stream
+			params = new LinkedHashMap<String, String>(defaultParams);
+			for (Map.Entry<String, String> param : params.entrySet()) {
+				if (param.getKey() == null) {
+					throw new IllegalArgumentException("Null default param name for route " + format);
+				}
+				if (param.getValue() == null) {
+					throw new IllegalArgumentException("Null value for default param " + param.getKey()
+							+ " of route " + format);
+				}
+			}
+		}
+		this._routes.put(format, new BinaryRouteTable.Target(className, params));
+		return this;
+	}
+
+	/**
+	 * Write the routes mapped so far
+	 * @param out The stream to write the table to; not closed
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		RouteResolver<BinaryRouteTable.Target> resolver = new RouteResolver<BinaryRouteTable.Target>();
+		resolver.map(this._routes);
+		BinaryRouteTable.write(resolver.routes(), new DataOutputStream(out));
+	}
+
+	/**
+	 * @return The routes mapped so far, as a table
+	 */
+	public byte[] toByteArray() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			this.writeTo(out);
+		} catch (IOException e) {
+			// ByteArrayOutputStream doesn't throw
+			throw new IllegalStateException(e);
+		}
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,377 @@
+package com.usepropeller.routable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable trie of route formats keyed by path segment. Every node has any number of
+ * static children, a single unconstrained ":param" child, and one ":param{...}" child per distinct
+ * constraint, so finding the route for a URL costs one step per segment no matter how many routes
+ * are mapped.
+ *
+ * When several children could match a segment, the static child is tried first, then constrained
+ * params in the order they were first mapped, then the unconstrained param; a later child is only used
+ * if the earlier ones have no route for the rest of the URL. Constraints are checked while descending,
+ * so a segment like "abc" never reaches a route expecting ":id{int}".
+ *
+ * Adding a route returns a new trie that shares every node off the route's path with
+ * this one, so a trie can be read from any thread while a newer one is being built.
+ * Nodes are read through accessors so that a {@link BinaryRouteTable} can decode them on first use.
+ */
+class RouteTrie<T> {
+	/**
+	 * A route stored in the trie: its compiled pattern and the value it maps to.
+	 */
+	static class Entry<T> {
+		final RoutePattern pattern;
+		final T value;
+
+		Entry(RoutePattern pattern, T value) {
+			this.pattern = pattern;
+			this.value = value;
+		}
+	}
+
+	static class Node<T> {
+		private final Map<String, Node<T>> _staticChildren;
+		// Keyed by constraint source, in the order the constraints were first mapped
+		private final Map<String, ConstrainedChild<T>> _constrainedChildren;
+		private final Node<T> _paramChild;
+		private final Entry<T> _entry;
+
+		Node(Map<String, Node<T>> staticChildren, Map<String, ConstrainedChild<T>> constrainedChildren,
+				Node<T> paramChild, Entry<T> entry) {
+			this._staticChildren = staticChildren;
+			this._constrainedChildren = constrainedChildren;
+			this._paramChild = paramChild;
+			this._entry = entry;
+		}
+
+		/**
+		 * @return Every static child keyed by segment, or null if there are none
+		 */
+		Map<String, Node<T>> staticChildren() {
+			return this._staticChildren;
+		}
+
+		Node<T> staticChild(String segment) {
+			return this._staticChildren == null ? null : this._staticChildren.get(segment);
+		}
+
+		/**
+		 * @return The constrained param children keyed by constraint source, or null if there are none
+		 */
+		Map<String, ConstrainedChild<T>> constrainedChildren() {
+			return this._constrainedChildren;
+		}
+
+		Node<T> paramChild() {
+			return this._paramChild;
+		}
+
+		Entry<T> entry() {
+			return this._entry;
+		}
+	}
+
+	static class ConstrainedChild<T> {
+		final RoutePattern.Constraint constraint;
+		final Node<T> node;
+
+		ConstrainedChild(RoutePattern.Constraint constraint, Node<T> node) {
+			this.constraint = constraint;
+			this.node = node;
+		}
+	}
+
+	private final Node<T> _root;
+
+	RouteTrie() {
+		this(new Node<T>(null, null, null, null));
+	}
+
+	RouteTrie(Node<T> root) {
+		this._root = root;
+	}
+
+	/**
+	 * @return Whether the trie has no routes
+	 */
+	boolean isEmpty() {
+		return this._root.entry() == null && this._root.staticChildren() == null
+				&& this._root.constrainedChildren() == null && this._root.paramChild() == null;
+	}
+
+	Node<T> root() {
+		return this._root;
+	}
+
+	/**
+	 * @return Every route in the trie
+	 */
+	List<Entry<T>> entries() {
+		List<Entry<T>> entries = new ArrayList<Entry<T>>();
+		addEntries(this._root, entries);
+		return entries;
+	}
+
+	private static <T> void addEntries(Node<T> node, List<Entry<T>> entries) {
+		if (node.entry() != null) {
+			entries.add(node.entry());
+		}
+		if (node.staticChildren() != null) {
+			for (Node<T> child : node.staticChildren().values()) {
+				addEntries(child, entries);
+			}
+		}
+		if (node.constrainedChildren() != null) {
+			for (ConstrainedChild<T> child : node.constrainedChildren().values()) {
+				addEntries(child.node, entries);
+			}
+		}
+		if (node.paramChild() != null) {
+			addEntries(node.paramChild(), entries);
+		}
+	}
+
+	/**
+	 * @param entry The route to add; replaces any route with an identical format
+	 * @return A new trie containing the route
+	 */
+	RouteTrie<T> put(Entry<T> entry) {
+		return putAll(Collections.singletonList(entry));
+	}
+
+	/**
+	 * Adds many routes at once, copying each affected node only once.
+	 * @param entries The routes to add; a later entry replaces an earlier one with an identical format
+	 * @return A new trie containing the routes
+	 */
+	RouteTrie<T> putAll(List<Entry<T>> entries) {
+		if (entries.isEmpty()) {
+			return this;
+		}
+		return new RouteTrie<T>(putAll(this._root, entries, 0));
+	}
+
+	private static <T> Node<T> putAll(Node<T> node, List<Entry<T>> entries, int index) {
+		Entry<T> entry = node == null ? null : node.entry();
+		Map<String, List<Entry<T>>> staticEntries = null;
+		Map<String, List<Entry<T>>> constrainedEntries = null;
+		Map<String, RoutePattern.Constraint> constraints = null;
+		List<Entry<T>> paramEntries = null;
+		for (Entry<T> candidate : entries) {
+			RoutePattern pattern = candidate.pattern;
+			if (pattern.segments.length == index) {
+				entry = candidate;
+			} else if (!pattern.isParam(index)) {
+				if (staticEntries == null) {
+					staticEntries = new HashMap<String, List<Entry<T>>>();
+				}
+				add(staticEntries, pattern.segments[index], candidate);
+			} else if (pattern.constraint(index) != null) {
+				if (constrainedEntries == null) {
+					constrainedEntries = new LinkedHashMap<String, List<Entry<T>>>();
+					constraints = new HashMap<String, RoutePattern.Constraint>();
+				}
+				RoutePattern.Constraint constraint = pattern.constraint(index);
+				add(constrainedEntries, constraint.getSource(), candidate);
+				constraints.put(constraint.getSource(), constraint);
+			} else {
+				if (paramEntries == null) {
+					paramEntries = new ArrayList<Entry<T>>();
+				}
+				paramEntries.add(candidate);
+			}
+		}
+
+		Map<String, Node<T>> staticChildren = node == null ? null : node.staticChildren();
+		if (staticEntries != null) {
+			staticChildren = staticChildren == null
+					? new HashMap<String, Node<T>>()
+					: new HashMap<String, Node<T>>(staticChildren);
+			for (Map.Entry<String, List<Entry<T>>> segmentEntries : staticEntries.entrySet()) {
+				String segment = segmentEntries.getKey();
+				staticChildren.put(segment, putAll(staticChildren.get(segment), segmentEntries.getValue(), index + 1));
+			}
+		}
+
+		Map<String, ConstrainedChild<T>> constrainedChildren = node == null ? null : node.constrainedChildren();
+		if (constrainedEntries != null) {
+			constrainedChildren = constrainedChildren == null
+					? new LinkedHashMap<String, ConstrainedChild<T>>()
+					: new LinkedHashMap<String, ConstrainedChild<T>>(constrainedChildren);
+			for (Map.Entry<String, List<Entry<T>>> constraintEntries : constrainedEntries.entrySet()) {
+				String source = constraintEntries.getKey();
+				ConstrainedChild<T> child = constrainedChildren.get(source);
+				Node<T> childNode = putAll(child == null ? null : child.node, constraintEntries.getValue(), index + 1);
+				constrainedChildren.put(source, new ConstrainedChild<T>(
+						child == null ? constraints.get(source) : child.constraint, childNode));
+			}
+		}
+
+		Node<T> paramChild = node == null ? null : node.paramChild();
+		if (paramEntries != null) {
+			paramChild = putAll(paramChild, paramEntries, index + 1);
+		}
+		return new Node<T>(staticChildren, constrainedChildren, paramChild, entry);
+	}
+
+	/**
+	 * Removes routes, copying only the nodes on their paths and dropping nodes left without routes.
+	 * @param patterns The routes to remove; a pattern with no route of the same format is ignored
+	 * @return A new trie without the routes, or this trie if none of them were in it
+	 */
+	RouteTrie<T> removeAll(List<RoutePattern> patterns) {
+		Node<T> root = this._root;
+		for (RoutePattern pattern : patterns) {
+			root = remove(root, pattern, 0);
+			if (root == null) {
+				root = new Node<T>(null, null, null, null);
+			}
+		}
+		return root == this._root ? this : new RouteTrie<T>(root);
+	}
+
+	/*
+	 * Returns node without pattern's route: node itself if the route isn't under it, or null if nothing is left.
+	 */
+	private static <T> Node<T> remove(Node<T> node, RoutePattern pattern, int index) {
+		Map<String, Node<T>> staticChildren = node.staticChildren();
+		Map<String, ConstrainedChild<T>> constrainedChildren = node.constrainedChildren();
+		Node<T> paramChild = node.paramChild();
+		Entry<T> entry = node.entry();
+
+		if (index == pattern.segments.length) {
+			if (entry == null || !RouteResolver.cleanUrl(entry.pattern.format).equals(RouteResolver.cleanUrl(pattern.format))) {
+				return node;
+			}
+			entry = null;
+		} else if (!pattern.isParam(index)) {
+			Node<T> child = staticChildren == null ? null : staticChildren.get(pattern.segments[index]);
+			Node<T> newChild = child == null ? null : remove(child, pattern, index + 1);
+			if (newChild == child) {
+				return node;
+			}
+			staticChildren = new HashMap<String, Node<T>>(staticChildren);
+			if (newChild == null) {
+				staticChildren.remove(pattern.segments[index]);
+			} else {
+				staticChildren.put(pattern.segments[index], newChild);
+			}
+			if (staticChildren.isEmpty()) {
+				staticChildren = null;
+			}
+		} else if (pattern.constraint(index) != null) {
+			String source = pattern.constraint(index).getSource();
+			ConstrainedChild<T> child = constrainedChildren == null ? null : constrainedChildren.get(source);
+			Node<T> newChild = child == null ? null : remove(child.node, pattern, index + 1);
+			if (child == null || newChild == child.node) {
+				return node;
+			}
+			constrainedChildren = new LinkedHashMap<String, ConstrainedChild<T>>(constrainedChildren);
+			if (newChild == null) {
+				constrainedChildren.remove(source);
+			} else {
+				constrainedChildren.put(source, new ConstrainedChild<T>(child.constraint, newChild));
+			}
+			if (constrainedChildren.isEmpty()) {
+				constrainedChildren = null;
+			}
+		} else {
+			Node<T> newChild = paramChild == null ? null : remove(paramChild, pattern, index + 1);
+			if (newChild == paramChild) {
+				return node;
+			}
+			paramChild = newChild;
+		}
+
+		if (entry == null && staticChildren == null && constrainedChildren == null && paramChild == null) {
+			return null;
+		}
+		return new Node<T>(staticChildren, constrainedChildren, paramChild, entry);
+	}
+
+	/**
+	 * @param pattern A route format, compiled
+	 * @return The route mapped with the same format, or null if there is none
+	 */
+	Entry<T> entryFor(RoutePattern pattern) {
+		Node<T> node = this._root;
+		for (int index = 0; node != null && index < pattern.segments.length; index++) {
+			if (!pattern.isParam(index)) {
+				node = node.staticChild(pattern.segments[index]);
+			} else if (pattern.constraint(index) != null) {
+				Map<String, ConstrainedChild<T>> constrainedChildren = node.constrainedChildren();
+				ConstrainedChild<T> child = constrainedChildren == null
+						? null : constrainedChildren.get(pattern.constraint(index).getSource());
+				node = child == null ? null : child.node;
+			} else {
+				node = node.paramChild();
+			}
+		}
+		Entry<T> entry = node == null ? null : node.entry();
+		if (entry == null || !RouteResolver.cleanUrl(entry.pattern.format).equals(RouteResolver.cleanUrl(pattern.format))) {
+			return null;
+		}
+		return entry;
+	}
+
+	private static <T> void add(Map<String, List<Entry<T>>> entriesByKey, String key, Entry<T> entry) {
+		List<Entry<T>> entries = entriesByKey.get(key);
+		if (entries == null) {
+			entries = new ArrayList<Entry<T>>();
+			entriesByKey.put(key, entries);
+		}
+		entries.add(entry);
+	}
+
+	/**
+	 * @param segments The URL path split into segments (i.e. ["users", "42"])
+	 * @return The matching route, or null if no route matches
+	 */
+	Entry<T> find(String[] segments) {
+		return find(this._root, segments, 0);
+	}
+
+	private static <T> Entry<T> find(Node<T> node, String[] segments, int index) {
+		if (index == segments.length) {
+			return node.entry();
+		}
+
+		String segment = segments[index];
+		Node<T> staticChild = node.staticChild(segment);
+		if (staticChild != null) {
+			Entry<T> entry = find(staticChild, segments, index + 1);
+			if (entry != null) {
+				return entry;
+			}
+		}
+
+		Map<String, ConstrainedChild<T>> constrainedChildren = node.constrainedChildren();
+		if (constrainedChildren != null) {
+			for (ConstrainedChild<T> child : constrainedChildren.values()) {
+				if (child.constraint.matches(segment)) {
+					Entry<T> entry = find(child.node, segments, index + 1);
+					if (entry != null) {
+						return entry;
+					}
+				}
+			}
+		}
+
+		Node<T> paramChild = node.paramChild();
+		if (paramChild != null) {
+			return find(paramChild, segments, index + 1);
+		}
+		return null;
+	}
+
+	static boolean isParam(String segment) {
+		return segment.length() > 0 && segment.charAt(0) == ':';
+	}
+}
@@ -26,20 +26,41 @@
 
 package com.usepropeller.routable;
 
-import java.net.URI;
-import java.util.HashMap;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import android.app.Activity;
+import android.app.Fragment;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
-
-import org.apache.http.NameValuePair;
-import org.apache.http.client.utils.URLEncodedUtils;
+import android.os.Handler;
+import android.os.Looper;
 
 public class Router {
 	private static final Router _router = new Router();
@@ -60,11 +81,169 @@ public class Router {
 		public abstract void run(RouteContext context);
 	}
 
+	/**
+	 * A {@link RouterCallback} that may finish its work after {@code run} returns. When opened with
+	 * {@link Router#openAsync}, it is run on the router's background executor instead of the main thread,
+	 * and the open completes once it calls {@link RouteCompletion#complete()} from any thread.
+	 */
+	public static abstract class AsyncRouterCallback extends RouterCallback {
+		@Override
+		public final void run(RouteContext context) {
+			this.run(context, new RouteCompletion(null));
+		}
+
+		public abstract void run(RouteContext context, RouteCompletion completion);
+	}
+
+	/**
+	 * Handed to an {@link AsyncRouterCallback} to report that its work is done
+	 */
+	public static final class RouteCompletion {
+		private final OpenFuture _future;
+
+		RouteCompletion(OpenFuture future) {
+			this._future = future;
+		}
+
+		public void complete() {
+			if (this._future != null) {
+				this._future.complete();
+			}
+		}
+
+		public void fail(Throwable error) {
+			if (this._future != null) {
+				this._future.fail(error);
+			}
+		}
+	}
+
+	/**
+	 * Implemented by an {@link Activity} that can show routes mapped to a {@link Fragment} in place, without
+	 * starting another Activity. When a URL for such a route is opened with a host as its context, the route's
+	 * fragment replaces the content of the host's container and is added to the back stack.
+	 */
+	public interface FragmentHost {
+		/**
+		 * @param match The route being opened
+		 * @return The id of the view whose content the route's fragment replaces, or 0 to open the route's
+		 * Activity instead
+		 */
+		int getFragmentContainerId(RouteMatch<RouterOptions> match);
+	}
+
+	/**
+	 * A check run before a resolved URL is opened, for cross-cutting concerns like sign-in gates, feature flags and
+	 * A/B redirects. Add one to every route with {@link Router#addInterceptor(Interceptor)} or to a single route with
+	 * {@link RouterOptions#addInterceptor(Interceptor)}; the router's interceptors run first, in the order they were
+	 * added, then the route's.
+	 *
+	 * Interceptors run on the thread resolving the URL: the caller's for {@link Router#open(String)} and
+	 * {@link Router#openStack(List)}, the async executor for {@link Router#openAsync(String)}.
+	 */
+	public static abstract class Interceptor {
+		/**
+		 * @param url The URL being opened, as given to the router or as rewritten by an earlier interceptor
+		 * @param match The URL's route and params
+		 * @param extras The extras the URL is being opened with, or null
+		 * @param context The context the URL is being opened with
+		 * @return {@link Interception#CONTINUE}, {@link Interception#CANCEL}, or an {@link Interception#rewrite(String)}
+		 * or {@link Interception#redirect(String)} to another URL
+		 */
+		public abstract Interception intercept(String url, RouteMatch<RouterOptions> match, Bundle extras,
+				Context context);
+	}
+
+	/**
+	 * What an {@link Interceptor} decides to do with a URL. Immutable, so interceptors can return the same
+	 * rewrite or redirect every time.
+	 */
+	public static final class Interception {
+		private static final int KIND_CONTINUE = 0;
+		private static final int KIND_CANCEL = 1;
+		private static final int KIND_REWRITE = 2;
+		private static final int KIND_REDIRECT = 3;
+		// Not handed to interceptors; the outcome of a chain that rewrote or redirected the URL
+		private static final int KIND_REPLACED = 4;
+
+		/**
+		 * Go on to the next interceptor, or open the URL if there is none
+		 */
+		public static final Interception CONTINUE = new Interception(KIND_CONTINUE, null, null);
+
+		/**
+		 * Don't open the URL; the remaining interceptors aren't run
+		 */
+		public static final Interception CANCEL = new Interception(KIND_CANCEL, null, null);
+
+		// Not handed to interceptors; the outcome of a chain that rewrote or redirected to a URL without a route,
+		// when the caller doesn't want a RouteNotFoundException
+		static final Interception NOT_FOUND = new Interception(KIND_CANCEL, null, null);
+
+		final int kind;
+		final String url;
+		final RouteMatch<RouterOptions> match;
+
+		private Interception(int kind, String url, RouteMatch<RouterOptions> match) {
+			this.kind = kind;
+			this.url = url;
+			this.match = match;
+		}
+
+		/**
+		 * Replace the URL, for example to add a query param, and go on to the next interceptor. If the new URL matches
+		 * a different route, every interceptor runs for it from the start, as for a {@link #redirect(String)}.
+		 * @param url The URL to open instead; if it has no route, nothing is opened, as for any URL without one
+		 */
+		public static Interception rewrite(String url) {
+			return new Interception(KIND_REWRITE, url, null);
+		}
+
+		/**
+		 * Open another URL instead, running every interceptor for it from the start; for example, a sign-in screen
+		 * @param url The URL to open instead; if it has no route, nothing is opened, as for any URL without one
+		 */
+		public static Interception redirect(String url) {
+			return new Interception(KIND_REDIRECT, url, null);
+		}
+
+		public String getUrl() {
+			return this.url;
+		}
+	}
+
+	/**
+	 * A monotonic source of time, in milliseconds, for the duplicate open window; replace the router's with
+	 * {@link Router#setClock(Clock)} to control time in tests
+	 */
+	public static abstract class Clock {
+		static final Clock SYSTEM = new Clock() {
+			@Override
+			public long uptimeMillis() {
+				return System.nanoTime() / 1000000;
+			}
+		};
+
+		public abstract long uptimeMillis();
+	}
+
+	/**
+	 * Told on the main thread how a URL passed to {@link Router#openAsync} was opened; not told if the open was cancelled
+	 */
+	public static abstract class OpenListener {
+		public void onOpen(String url, RouteMatch<RouterOptions> match) {}
+
+		public void onError(String url, Throwable error) {}
+	}
+
     /**
      * The class supplied to custom callbacks to describe the route route
      */
 	public class RouteContext {
 		Map<String, String> _params;
+		Map<String, Object> _typedParams;
+		// When set, the params are taken from the match the first time they're asked for
+		RouteMatch<RouterOptions> _match;
 		Bundle _extras;
         Context _context;
 
@@ -74,10 +253,41 @@ public class Router {
             _context = context;
         }
 
+        public RouteContext(Map<String, String> params, Map<String, Object> typedParams, Bundle extras, Context context) {
+			this(params, extras, context);
+			_typedParams = typedParams;
+        }
+
+        RouteContext(RouteMatch<RouterOptions> match, Bundle extras, Context context) {
+			this((Map<String, String>) null, extras, context);
+			_match = match;
+        }
+
         /**
          * Returns the route parameters as specified by the configured route
          */
-		public Map<String, String> getParams() { return _params; }
+		public Map<String, String> getParams() {
+			if (_match != null) {
+				return _match.getParams();
+			}
+			return _params;
+		}
+
+        /**
+         * Returns the route parameters, with those constrained by {int} or {long} in the route as Integer and Long values
+         */
+		public Map<String, Object> getTypedParams() {
+			if (_match != null) {
+				return _match.getTypedParams();
+			}
+			if (_typedParams == null) {
+				if (_params == null) {
+					return Collections.<String, Object>emptyMap();
+				}
+				return Collections.<String, Object>unmodifiableMap(_params);
+			}
+			return _typedParams;
+		}
 
         /**
          * Returns the extras supplied with the route
@@ -93,12 +303,20 @@ public class Router {
 	/**
      * The class used to determine behavior when opening a URL.
      * If you want to extend Routable to handle things like transition
-     * animations or fragments, this class should be augmented.
+     * animations, this class should be augmented.
      */
 	public static class RouterOptions {
 		Class<? extends Activity> _klass;
+		String _klassName;
+		String _fragmentClassName;
 		RouterCallback _callback;
 		Map<String, String> _defaultParams;
+		// Copied on write, so that opening a URL reads it without locking or allocating
+		volatile Interceptor[] _interceptors = NO_INTERCEPTORS;
+		// Built on first use and dropped whenever the options change: one for a context's package, with the
+		// component set, and one without a context, so that both kinds of caller are served from the cache
+		private volatile IntentTemplate _intentTemplate;
+		private volatile Intent _bareIntentTemplate;
 
 		public RouterOptions() {
 
@@ -119,12 +337,52 @@ public class Router {
 
 		public void setOpenClass(Class<? extends Activity> klass) {
 			this._klass = klass;
+			this.clearIntentTemplates();
 		}
 
 		public Class<? extends Activity> getOpenClass() {
 			return this._klass;
 		}
 
+		/**
+		 * Open an {@link Activity} by name, so that its class is not loaded until the URL is opened.
+		 * Ignored if an open class is set.
+		 * @param klassName The fully qualified name of the {@link Activity} class
+		 */
+		public void setOpenClassName(String klassName) {
+			this._klassName = klassName;
+			this.clearIntentTemplates();
+		}
+
+		public String getOpenClassName() {
+			if (this._klass != null) {
+				return this._klass.getName();
+			}
+			return this._klassName;
+		}
+
+		/**
+		 * Show a {@link Fragment} in the current {@link FragmentHost} instead of starting an Activity. The route's
+		 * params become the fragment's arguments. Outside a host, or before Honeycomb, the open class is started
+		 * instead, so set one too unless the route is only opened from hosts.
+		 * @param klass The {@link Fragment} class, which needs a public no-argument constructor
+		 */
+		public void setFragmentClass(Class<? extends Fragment> klass) {
+			this._fragmentClassName = klass == null ? null : klass.getName();
+		}
+
+		/**
+		 * @param klassName The fully qualified name of the {@link Fragment} class, loaded when the URL is first opened
+		 * @see #setFragmentClass(Class)
+		 */
+		public void setFragmentClassName(String klassName) {
+			this._fragmentClassName = klassName;
+		}
+
+		public String getFragmentClassName() {
+			return this._fragmentClassName;
+		}
+
 		public RouterCallback getCallback() {
 			return this._callback;
 		}
@@ -133,27 +391,153 @@ public class Router {
 			this._callback = callback;
 		}
 
+		/**
+		 * Run an {@link Interceptor} whenever the route is opened, after the router's own interceptors
+		 * @param interceptor The interceptor; runs after the route's earlier interceptors
+		 */
+		public synchronized void addInterceptor(Interceptor interceptor) {
+			this._interceptors = appended(this._interceptors, interceptor);
+		}
+
+		public List<Interceptor> getInterceptors() {
+			return Collections.unmodifiableList(Arrays.asList(this._interceptors));
+		}
+
+		/**
+		 * @param defaultParams Extras added to every {@link Intent} for the route; they are copied into a template the
+		 * first time the route is opened, so set them again after changing the map
+		 */
 		public void setDefaultParams(Map<String, String> defaultParams) {
 			this._defaultParams = defaultParams;
+			this.clearIntentTemplates();
 		}
 
 		public Map<String, String> getDefaultParams() {
 			return this._defaultParams;
 		}
+
+		/*
+		 * An Intent holding the default params and, if context isn't null, the component to open; copied
+		 * for each URL rather than rebuilt. Must not be modified.
+		 */
+		Intent intentTemplate(Context context) {
+			if (context == null) {
+				Intent bare = this._bareIntentTemplate;
+				if (bare == null) {
+					bare = this.buildIntentTemplate(null);
+					this._bareIntentTemplate = bare;
+				}
+				return bare;
+			}
+			String packageName = context.getPackageName();
+			IntentTemplate template = this._intentTemplate;
+			if (template != null && (packageName == null
+					? template.packageName == null : packageName.equals(template.packageName))) {
+				return template.intent;
+			}
+			Intent intent = this.buildIntentTemplate(context);
+			this._intentTemplate = new IntentTemplate(packageName, intent);
+			return intent;
+		}
+
+		private Intent buildIntentTemplate(Context context) {
+			Intent intent = new Intent();
+			if (this._defaultParams != null) {
+				for (Entry<String, String> entry : this._defaultParams.entrySet()) {
+					intent.putExtra(entry.getKey(), entry.getValue());
+				}
+			}
+			if (context != null) {
+				if (this._klass != null) {
+					intent.setClass(context, this._klass);
+				} else {
+					intent.setClassName(context, this._klassName);
+				}
+			}
+			return intent;
+		}
+
+		private void clearIntentTemplates() {
+			this._intentTemplate = null;
+			this._bareIntentTemplate = null;
+		}
+	}
+
+	private static final Interceptor[] NO_INTERCEPTORS = new Interceptor[0];
+	// Rewrites and redirects followed for one open before giving up on a loop
+	private static final int MAX_INTERCEPTIONS = 8;
+
+	private static Interceptor[] appended(Interceptor[] interceptors, Interceptor interceptor) {
+		if (interceptor == null) {
+			throw new IllegalArgumentException("Interceptor must not be null");
+		}
+		Interceptor[] appended = Arrays.copyOf(interceptors, interceptors.length + 1);
+		appended[interceptors.length] = interceptor;
+		return appended;
 	}
 
-	private static class RouterParams {
-		public RouterOptions routerOptions;
-		public Map<String, String> openParams;
+	private static class IntentTemplate {
+		final String packageName;
+		final Intent intent;
+
+		IntentTemplate(String packageName, Intent intent) {
+			this.packageName = packageName;
+			this.intent = intent;
+		}
 	}
 
-	private final Map<String, RouterOptions> _routes = new HashMap<String, RouterOptions>();
-	private String _rootUrl = null;
-	private final Map<String, RouterParams> _cachedRoutes = new HashMap<String, RouterParams>();
-	private Context _context;
+	/**
+	 * The number of resolved URLs a Router caches unless told otherwise
+	 */
+	public static final int DEFAULT_RESOLUTION_CACHE_SIZE = RouteResolver.DEFAULT_CACHE_SIZE;
 
 	/**
-     * Creates a new Router
+	 * The {@link SharedPreferences} file that {@link #saveProfile()} writes the profile to
+	 */
+	public static final String PROFILE_PREFERENCES = "com.usepropeller.routable.profile";
+	private static final String PROFILE_URLS_KEY = "urls";
+
+	/**
+	 * The long extra (or Fragment argument) identifying a navigation while latency tracking is on; pass the
+	 * target's extras to {@link #reportFirstFrame(Bundle)} to finish it
+	 */
+	public static final String EXTRA_NAVIGATION_ID = "com.usepropeller.routable.NAVIGATION_ID";
+
+	// The trace sections marked around each phase of opening a URL
+	static final String TRACE_OPEN = "Routable.open";
+	static final String TRACE_OPEN_STACK = "Routable.openStack";
+	static final String TRACE_RESOLVE = "Routable.resolve";
+	static final String TRACE_INTERCEPT = "Routable.intercept";
+	static final String TRACE_CALLBACK = "Routable.callback";
+	static final String TRACE_SHOW_FRAGMENT = "Routable.showFragment";
+	static final String TRACE_BUILD_INTENT = "Routable.buildIntent";
+	static final String TRACE_START_ACTIVITY = "Routable.startActivity";
+	static final String TRACE_ROUTER_ACTIVITY = "Routable.RouterActivity";
+
+	private static final BinaryRouteTable.TargetDecoder<RouterOptions> OPTIONS_DECODER =
+			new BinaryRouteTable.TargetDecoder<RouterOptions>() {
+		@Override
+		public RouterOptions decode(String className, Map<String, String> defaultParams) {
+			RouterOptions options = new RouterOptions(defaultParams);
+			options.setOpenClassName(className);
+			return options;
+		}
+	};
+
+	private final RouteResolver<RouterOptions> _resolver = new RouteResolver<RouterOptions>();
+	private volatile String _rootUrl = null;
+	private volatile Context _context;
+	private volatile RouterMetricsListener _metricsListener;
+	private final RouteProfile _profile = new RouteProfile();
+	private final OpenCoalescer _coalescer = new OpenCoalescer();
+	private final NavigationTracker _navigations = new NavigationTracker();
+	private volatile TraceBackend _traceBackend = TraceBackend.SYSTEM;
+	private volatile Interceptor[] _interceptors = NO_INTERCEPTORS;
+	private Executor _asyncExecutor;
+	private Executor _mainThreadExecutor;
+
+	/**
+     * Creates a new Router. Routes may be mapped and opened from any thread.
      */
 	public Router() {
 
@@ -183,7 +567,7 @@ public class Router {
 
 	/**
      * Map a URL to a callback
-     * @param format The URL being mapped; for example, "users/:id" or "groups/:id/topics/:topic_id"
+     * @param format The URL being mapped; for example, "users/:id", "myapp://users/:id" or "https://example.com/users/:id"
      * @param callback {@link RouterCallback} instance which contains the code to execute when the URL is opened
      */
 	public void map(String format, RouterCallback callback) {
@@ -194,7 +578,7 @@ public class Router {
 
 	/**
      * Map a URL to open an {@link Activity}
-     * @param format The URL being mapped; for example, "users/:id" or "groups/:id/topics/:topic_id"
+     * @param format The URL being mapped; for example, "users/:id", "myapp://users/:id" or "https://example.com/users/:id"
      * @param klass The {@link Activity} class to be opened with the URL
      */
 	public void map(String format, Class<? extends Activity> klass) {
@@ -203,16 +587,366 @@ public class Router {
 
 	/**
      * Map a URL to open an {@link Activity}
-     * @param format The URL being mapped; for example, "users/:id" or "groups/:id/topics/:topic_id"
+     * @param format The URL being mapped; for example, "users/:id", "myapp://users/:id" or "https://example.com/users/:id"
      * @param klass The {@link Activity} class to be opened with the URL
      * @param options The {@link RouterOptions} to be used for more granular and customized options for when the URL is opened
+     * @throws IllegalArgumentException If a param's constraint, like ":id{int}", is invalid
      */
 	public void map(String format, Class<? extends Activity> klass, RouterOptions options) {
 		if (options == null) {
 			options = new RouterOptions();
 		}
 		options.setOpenClass(klass);
-		this._routes.put(format, options);
+		this._resolver.map(format, options);
+	}
+
+	/**
+	 * Map a URL to show a {@link Fragment} in the current {@link FragmentHost}
+	 * @param format The URL being mapped; for example, "users/:id"
+	 * @param fragmentClass The {@link Fragment} class to be shown with the URL
+	 * @param klass The {@link Activity} class to be opened instead when the URL isn't opened from a host
+	 * @see RouterOptions#setFragmentClass(Class)
+	 */
+	public void mapFragment(String format, Class<? extends Fragment> fragmentClass, Class<? extends Activity> klass) {
+		RouterOptions options = new RouterOptions();
+		options.setFragmentClass(fragmentClass);
+		this.map(format, klass, options);
+	}
+
+	/**
+	 * Map every route in a {@link RouteTable}, such as the one generated from {@link Route} annotations,
+	 * in one step
+	 * @param table The {@link RouteTable} containing the routes
+	 */
+	public void map(RouteTable table) {
+		Map<String, RouterOptions> routes = new LinkedHashMap<String, RouterOptions>();
+		table.loadInto(routes);
+		this._resolver.map(routes);
+	}
+
+	/**
+	 * Add, replace and remove routes in one step, for example when route configuration is pushed to a running app.
+	 * Navigation never sees a partly updated router, and only cached URLs the changes could affect are resolved again.
+	 * @param diff The routes to add, replace and remove
+	 * @throws IllegalArgumentException If a param's constraint is invalid, in which case nothing changes
+	 */
+	public void update(RouteDiff<RouterOptions> diff) {
+		this._resolver.update(diff);
+	}
+
+	/**
+	 * Map every route in a binary route table written by {@link RouteTableWriter}. Only the table's header
+	 * is read up front; each route is decoded from the buffer the first time a URL reaches it. Routes that
+	 * were already mapped take precedence over routes in the table with the same format.
+	 * @param table The table, from the buffer's position to its limit; must not change afterwards
+	 * @throws IllegalArgumentException If the buffer doesn't hold a route table of a supported version
+	 */
+	public void map(ByteBuffer table) {
+		this._resolver.map(table, OPTIONS_DECODER);
+	}
+
+	/**
+	 * Memory-map a binary route table file written by {@link RouteTableWriter} and map its routes
+	 * @param table The table file; must not change afterwards
+	 * @throws IOException If the file can't be mapped
+	 * @see #map(ByteBuffer)
+	 */
+	public void map(File table) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(table, "r");
+		try {
+			this.map(file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length()));
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Bound the number of resolved URLs the router keeps; the least recently opened URLs are evicted first
+	 * @param size The maximum number of URLs to cache, or 0 to disable caching
+	 */
+	public void setResolutionCacheSize(int size) {
+		this._resolver.setCacheSize(size);
+	}
+
+	/**
+	 * @return The maximum number of resolved URLs the router caches
+	 */
+	public int getResolutionCacheSize() {
+		return this._resolver.getCacheSize();
+	}
+
+	/**
+	 * @return The current size and hit, miss and eviction counts of the resolution cache
+	 */
+	public RouteResolver.CacheStats getResolutionCacheStats() {
+		return this._resolver.getCacheStats();
+	}
+
+	/**
+	 * Bound the number of unknown URLs the router remembers, so that opening them again fails fast
+	 * @param size The maximum number of URLs to remember, or 0 to disable negative caching
+	 */
+	public void setNegativeCacheSize(int size) {
+		this._resolver.setNegativeCacheSize(size);
+	}
+
+	/**
+	 * @return The current size and hit, miss and eviction counts of the cache of unknown URLs
+	 */
+	public RouteResolver.CacheStats getNegativeCacheStats() {
+		return this._resolver.getNegativeCacheStats();
+	}
+
+	/**
+	 * Report resolution and open timings to a listener
+	 * @param listener The {@link RouterMetricsListener} to notify, or null to stop reporting
+	 */
+	public void setMetricsListener(RouterMetricsListener listener) {
+		this._metricsListener = listener;
+	}
+
+	/**
+	 * @return The router's {@link RouterMetricsListener}, or null.
+	 */
+	public RouterMetricsListener getMetricsListener() {
+		return this._metricsListener;
+	}
+
+	/**
+	 * Run an {@link Interceptor} before every URL is opened, ahead of any route's own interceptors
+	 * @param interceptor The interceptor; runs after the router's earlier interceptors
+	 */
+	public synchronized void addInterceptor(Interceptor interceptor) {
+		this._interceptors = appended(this._interceptors, interceptor);
+	}
+
+	/**
+	 * @param interceptor An interceptor added with {@link #addInterceptor(Interceptor)}; nothing happens if it wasn't
+	 */
+	public synchronized void removeInterceptor(Interceptor interceptor) {
+		List<Interceptor> interceptors = new ArrayList<Interceptor>(Arrays.asList(this._interceptors));
+		if (interceptors.remove(interceptor)) {
+			this._interceptors = interceptors.toArray(new Interceptor[interceptors.size()]);
+		}
+	}
+
+	public List<Interceptor> getInterceptors() {
+		return Collections.unmodifiableList(Arrays.asList(this._interceptors));
+	}
+
+	/**
+	 * Drop an open of a URL if the same URL was opened within a window before it, for example the second tap
+	 * of a double tap. Duplicates are dropped before the URL is resolved. Applies to {@link #open(String)} and
+	 * {@link #tryOpen(String)}; off by default.
+	 * @param windowMillis How long after an open an identical one is dropped, or 0 to drop none
+	 */
+	public void setDuplicateOpenWindow(long windowMillis) {
+		this.setDuplicateOpenWindow(windowMillis, false);
+	}
+
+	/**
+	 * Drop an open of a URL if the same URL, or another URL for the same route, was opened within a window before it
+	 * @param windowMillis How long after an open an identical one is dropped, or 0 to drop none
+	 * @param perRoute Whether URLs for the same route are identical, like "users/1" and "users/2", rather than only
+	 * equal URLs; they are then dropped right after resolution, which is usually a cache hit
+	 * @see #setDuplicateOpenWindow(long)
+	 */
+	public void setDuplicateOpenWindow(long windowMillis, boolean perRoute) {
+		this._coalescer.setWindow(windowMillis, perRoute);
+	}
+
+	/**
+	 * @return The duplicate open window in milliseconds, or 0 if duplicates aren't dropped
+	 */
+	public long getDuplicateOpenWindow() {
+		return this._coalescer.getWindowMillis();
+	}
+
+	/**
+	 * @param clock The {@link Clock} timing the duplicate open window and navigation latencies, or null for the system's
+	 */
+	public void setClock(Clock clock) {
+		this._coalescer.setClock(clock);
+		this._navigations.setClock(clock);
+	}
+
+	/**
+	 * @param backend The {@link TraceBackend} to mark each phase of opening a URL with; {@link TraceBackend#SYSTEM}
+	 * by default, or null for {@link TraceBackend#NONE}
+	 */
+	public void setTraceBackend(TraceBackend backend) {
+		this._traceBackend = backend == null ? TraceBackend.NONE : backend;
+	}
+
+	public TraceBackend getTraceBackend() {
+		return this._traceBackend;
+	}
+
+	/**
+	 * Time each navigation from the moment its URL is opened until the target reports its first frame with
+	 * {@link #reportFirstFrame(Bundle)}, and keep a histogram of the latencies for each route. Callback routes
+	 * are timed until their callback returns. Off by default.
+	 * @param enabled Whether to track latencies; turning tracking off keeps the histograms so far
+	 */
+	public void setLatencyTracking(boolean enabled) {
+		this._navigations.setEnabled(enabled);
+	}
+
+	public boolean isLatencyTracking() {
+		return this._navigations.isEnabled();
+	}
+
+	/**
+	 * Finish timing the navigation that opened an Activity or Fragment. Call it once the target has drawn its
+	 * first frame, for example from a {@code ViewTreeObserver.OnPreDrawListener} on the Activity's decor view.
+	 * @param extras The Activity's Intent extras or the Fragment's arguments; may be null
+	 * @return Whether the extras identified a navigation that was still being timed
+	 */
+	public boolean reportFirstFrame(Bundle extras) {
+		if (extras == null) {
+			return false;
+		}
+		return this._navigations.finish(extras.getLong(EXTRA_NAVIGATION_ID, 0));
+	}
+
+	/**
+	 * @return A snapshot of the navigation latencies recorded for each route, keyed by route format, ready to be
+	 * logged or exported
+	 */
+	public Map<String, LatencyHistogram> getLatencyHistograms() {
+		return this._navigations.histograms();
+	}
+
+	/**
+	 * Forget every recorded latency, for example after exporting them
+	 */
+	public void resetLatencyHistograms() {
+		this._navigations.reset();
+	}
+
+	/**
+	 * Record the URLs opened most often, so that they can be resolved ahead of time with {@link #warmUp(Collection)}
+	 * or, after {@link #saveProfile()}, with {@link #warmUpFromProfile()} on the next start
+	 * @param size The number of URLs to keep in the profile, or 0 (the default) to stop recording
+	 */
+	public void setProfileSize(int size) {
+		this._profile.setSize(size);
+	}
+
+	/**
+	 * @return The URLs opened most often so far, most opened first
+	 */
+	public List<String> getProfile() {
+		return this._profile.hottest();
+	}
+
+	/**
+	 * Save the URLs opened most often to the {@link #PROFILE_PREFERENCES} preferences, for
+	 * {@link #warmUpFromProfile()} to read on the next start; for example, when the app goes to the background
+	 */
+	public void saveProfile() {
+		StringBuilder urls = new StringBuilder();
+		for (String url : this._profile.hottest()) {
+			// URLs with line breaks can't be told apart when read back
+			if (url.indexOf('\n') < 0) {
+				if (urls.length() > 0) {
+					urls.append('\n');
+				}
+				urls.append(url);
+			}
+		}
+		this.profilePreferences().edit().putString(PROFILE_URLS_KEY, urls.toString()).apply();
+	}
+
+	/**
+	 * Resolve the URLs saved by {@link #saveProfile()} on the async executor (see {@link #setAsyncExecutor(Executor)}),
+	 * so that their first open is answered from the resolution cache. Call it after mapping routes at startup.
+	 * @return A {@link Future} of the number of saved URLs that have a route
+	 */
+	public Future<Integer> warmUpFromProfile() {
+		String saved = this.profilePreferences().getString(PROFILE_URLS_KEY, "");
+		final List<String> urls = saved.length() == 0
+				? Collections.<String>emptyList() : Arrays.asList(saved.split("\n"));
+		FutureTask<Integer> warmUp = new FutureTask<Integer>(new Callable<Integer>() {
+			@Override
+			public Integer call() {
+				return Router.this.warmUp(urls);
+			}
+		});
+		this.asyncExecutor().execute(warmUp);
+		return warmUp;
+	}
+
+	/**
+	 * Resolve URLs ahead of time on the calling thread, filling the resolution cache, decoding any parts of a
+	 * binary route table they use, and building their routes' {@link Intent} templates. Doesn't open anything,
+	 * record anything in the profile or notify the {@link RouterMetricsListener}.
+	 * @param urls The URLs to resolve; URLs without a route are skipped
+	 * @return The number of the URLs that have a route
+	 */
+	public int warmUp(Collection<String> urls) {
+		Context context = this._context;
+		int resolved = 0;
+		for (String url : urls) {
+			RouteMatch<RouterOptions> match = this._resolver.resolve(url);
+			if (match == null) {
+				continue;
+			}
+			resolved++;
+			RouterOptions options = match.getTarget();
+			if (options.getCallback() == null) {
+				options.intentTemplate(context);
+			}
+		}
+		return resolved;
+	}
+
+	private SharedPreferences profilePreferences() {
+		Context context = this._context;
+		if (context == null) {
+			throw new ContextNotProvided(
+					"You need to supply a context for Router "
+							+ this.toString());
+		}
+		return context.getSharedPreferences(PROFILE_PREFERENCES, Context.MODE_PRIVATE);
+	}
+
+	/**
+	 * Set the executor that {@link #openAsync} resolves URLs and runs {@link AsyncRouterCallback}s on, and that
+	 * {@link #warmUpFromProfile()} resolves URLs on
+	 * @param executor The {@link Executor} to use, or null for the default single background thread
+	 */
+	public synchronized void setAsyncExecutor(Executor executor) {
+		this._asyncExecutor = executor;
+	}
+
+	/**
+	 * Set the executor that {@link #openAsync} starts activities, runs callbacks and notifies listeners on
+	 * @param executor The {@link Executor} to use, or null for the default, which posts to the main looper
+	 */
+	public synchronized void setMainThreadExecutor(Executor executor) {
+		this._mainThreadExecutor = executor;
+	}
+
+	private synchronized Executor asyncExecutor() {
+		if (this._asyncExecutor == null) {
+			this._asyncExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "Routable");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return this._asyncExecutor;
+	}
+
+	private synchronized Executor mainThreadExecutor() {
+		if (this._mainThreadExecutor == null) {
+			this._mainThreadExecutor = new MainThreadExecutor();
+		}
+		return this._mainThreadExecutor;
 	}
 
 	/**
@@ -314,24 +1048,518 @@ public class Router {
 					"You need to supply a context for Router "
 							+ this.toString());
 		}
-		RouterParams params = this.paramsForUrl(url);
-		RouterOptions options = params.routerOptions;
-		if (options.getCallback() != null) {
-            RouteContext routeContext = new RouteContext(params.openParams, extras, context);
+		this.openUnlessDuplicate(url, extras, context, true);
+	}
+
+	/**
+	 * Open several map'd URLs as one back stack; the last URL ends up on top
+	 * @param urls The URLs, from the bottom of the stack to the top; for example, ["users", "users/16"]
+	 * @see #openStack(List, Context)
+	 */
+	public void openStack(List<String> urls) {
+		this.openStack(urls, this._context);
+	}
+
+	/**
+	 * Open several map'd URLs as one back stack. Every URL is resolved before anything is opened, so a URL without
+	 * a route opens nothing. Fragment routes are opened as their Activity. Each URL is run past the interceptors,
+	 * and a URL they cancel is left out of the stack. Callback routes are run in order, then all of the activities are started with a
+	 * single {@link Context#startActivities(Intent[])} call (one {@link Context#startActivity(Intent)} call each
+	 * before API 11).
+	 * @param urls The URLs, from the bottom of the stack to the top; for example, ["users", "users/16"]
+	 * @param context The context which is used in the generated {@link Intent}s
+	 * @throws RouteNotFoundException If any of the URLs has no route
+	 */
+	public void openStack(List<String> urls, Context context) {
+		this.openStack(urls, context, true);
+	}
+
+	/**
+	 * Open several URLs as one back stack like {@link #openStack(List, Context)}, leaving out URLs that have no
+	 * route instead of throwing a {@link RouteNotFoundException}; for links from outside the app
+	 * @param urls The URLs, from the bottom of the stack to the top; for example, ["users", "users/16"]
+	 * @param context The context which is used in the generated {@link Intent}s
+	 * @return Whether any of the URLs was opened
+	 */
+	public boolean tryOpenStack(List<String> urls, Context context) {
+		return this.openStack(urls, context, false);
+	}
+
+	private boolean openStack(List<String> urls, Context context, boolean notFoundThrows) {
+		if (context == null) {
+			throw new ContextNotProvided(
+					"You need to supply a context for Router "
+							+ this.toString());
+		}
+		long startMillis = this._navigations.now();
+		TraceBackend trace = this._traceBackend;
+		trace.beginSection(TRACE_OPEN_STACK);
+		try {
+			return this.openStack(urls, context, startMillis, notFoundThrows);
+		} finally {
+			trace.endSection();
+		}
+	}
+
+	private boolean openStack(List<String> givenUrls, Context context, long startMillis, boolean notFoundThrows) {
+		List<String> urls = new ArrayList<String>(givenUrls.size());
+		List<RouteMatch<RouterOptions>> matches = new ArrayList<RouteMatch<RouterOptions>>(givenUrls.size());
+		for (String url : givenUrls) {
+			RouteMatch<RouterOptions> params = notFoundThrows ? this.paramsForUrl(url) : this.tryResolve(url);
+			if (params == null) {
+				continue;
+			}
+			Interception interception = this.intercept(url, params, null, context, notFoundThrows);
+			if (interception == Interception.CANCEL || interception == Interception.NOT_FOUND) {
+				continue;
+			}
+			if (interception != Interception.CONTINUE) {
+				url = interception.url;
+				params = interception.match;
+			}
+			if (params.getTarget().getCallback() == null) {
+				checkOpenClass(params);
+			}
+			urls.add(url);
+			matches.add(params);
+		}
+
+		List<Intent> intents = new ArrayList<Intent>(matches.size());
+		RouteMatch<RouterOptions> top = null;
+		for (int index = 0; index < matches.size(); index++) {
+			RouteMatch<RouterOptions> params = matches.get(index);
+			if (params.getTarget().getCallback() != null) {
+				this.open(urls.get(index), params, null, context, startMillis);
+			} else {
+				this._profile.record(urls.get(index));
+				intents.add(this.intentFor(context, params));
+				top = params;
+			}
+		}
+		if (intents.isEmpty()) {
+			return !matches.isEmpty();
+		}
+		// Only the activity on top draws a frame
+		long navigationId = this._navigations.start(top.getFormat(), startMillis);
+		if (navigationId != 0) {
+			intents.get(intents.size() - 1).putExtra(EXTRA_NAVIGATION_ID, navigationId);
+		}
+
+		RouterMetricsListener listener = this._metricsListener;
+		long startTime = listener == null ? 0 : System.nanoTime();
+		TraceBackend trace = this._traceBackend;
+		trace.beginSection(TRACE_START_ACTIVITY);
+		try {
+			if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+				context.startActivities(intents.toArray(new Intent[intents.size()]));
+			} else {
+				for (Intent intent : intents) {
+					context.startActivity(intent);
+				}
+			}
+		} finally {
+			trace.endSection();
+		}
+		if (listener != null) {
+			// Every activity in the batch is reported with the duration of the whole batch
+			long duration = System.nanoTime() - startTime;
+			for (int index = 0; index < matches.size(); index++) {
+				RouteMatch<RouterOptions> params = matches.get(index);
+				if (params.getTarget().getCallback() == null) {
+					listener.onDispatch(urls.get(index), params.getFormat(), false, duration);
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Open a map'd URL without blocking the calling thread
+	 * @param url The URL; for example, "users/16" or "groups/5/topics/20"
+	 * @return A {@link Future} of the URL's {@link RouteMatch}
+	 * @see #openAsync(String, Bundle, Context, OpenListener)
+	 */
+	public Future<RouteMatch<RouterOptions>> openAsync(String url) {
+		return this.openAsync(url, null, this._context, null);
+	}
+
+	/**
+	 * Open a map'd URL without blocking the calling thread
+	 * @param url The URL; for example, "users/16" or "groups/5/topics/20"
+	 * @param extras The {@link Bundle} which contains the extras to be assigned to the generated {@link Intent}
+	 * @param context The context which is used in the generated {@link Intent}
+	 * @return A {@link Future} of the URL's {@link RouteMatch}
+	 * @see #openAsync(String, Bundle, Context, OpenListener)
+	 */
+	public Future<RouteMatch<RouterOptions>> openAsync(String url, Bundle extras, Context context) {
+		return this.openAsync(url, extras, context, null);
+	}
+
+	/**
+	 * Open a map'd URL without blocking the calling thread. The URL is resolved on the async executor;
+	 * only starting the {@link Activity} or running the {@link RouterCallback} happens on the main thread.
+	 * An {@link AsyncRouterCallback} is run on the async executor instead.
+	 * @param url The URL; for example, "users/16" or "groups/5/topics/20"
+	 * @param extras The {@link Bundle} which contains the extras to be assigned to the generated {@link Intent}
+	 * @param context The context which is used in the generated {@link Intent}
+	 * @param listener The {@link OpenListener} to notify once the URL is opened or fails to open, or null
+	 * @return A {@link Future} of the URL's {@link RouteMatch}, which fails with a {@link RouteNotFoundException}
+	 * if the URL has no route; cancelling it before the URL is dispatched stops it from being opened
+	 */
+	public Future<RouteMatch<RouterOptions>> openAsync(final String url, final Bundle extras, final Context context,
+			OpenListener listener) {
+		if (context == null) {
+			throw new ContextNotProvided(
+					"You need to supply a context for Router "
+							+ this.toString());
+		}
+		final long startMillis = this._navigations.now();
+		final OpenFuture future = new OpenFuture(url, listener);
+		this.asyncExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				if (future.isCancelled()) {
+					return;
+				}
+				try {
+					RouteMatch<RouterOptions> resolved;
+					TraceBackend trace = Router.this._traceBackend;
+					trace.beginSection(TRACE_RESOLVE);
+					try {
+						resolved = Router.this.paramsForUrl(url);
+					} finally {
+						trace.endSection();
+					}
+					Interception interception = Router.this.intercept(url, resolved, extras, context, true);
+					if (interception == Interception.CANCEL) {
+						future.cancel(false);
+						return;
+					}
+					final String openedUrl = interception == Interception.CONTINUE ? url : interception.url;
+					final RouteMatch<RouterOptions> params = interception == Interception.CONTINUE
+							? resolved : interception.match;
+					future.match = params;
+					RouterCallback callback = params.getTarget().getCallback();
+					if (callback instanceof AsyncRouterCallback) {
+						Router.this._profile.record(openedUrl);
+						Router.this.runCallback(openedUrl, params, extras, context, startMillis, future);
+						return;
+					}
+					Router.this.mainThreadExecutor().execute(new Runnable() {
+						@Override
+						public void run() {
+							if (future.isCancelled()) {
+								return;
+							}
+							try {
+								Router.this.open(openedUrl, params, extras, context, startMillis);
+								future.complete();
+							} catch (RuntimeException e) {
+								future.fail(e);
+							}
+						}
+					});
+				} catch (RuntimeException e) {
+					future.fail(e);
+				}
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * Open a map'd URL if it has a route, without throwing a {@link RouteNotFoundException} if it doesn't
+	 * @param url The URL; for example, "users/16" or "groups/5/topics/20"
+	 * @return Whether a route was found and opened; false if an interceptor cancelled it, or if it was dropped
+	 *         as a duplicate open
+	 */
+	public boolean tryOpen(String url) {
+		return this.tryOpen(url, null, this._context);
+	}
+
+	/**
+	 * Open a map'd URL if it has a route, without throwing a {@link RouteNotFoundException} if it doesn't
+	 * @param url The URL; for example, "users/16" or "groups/5/topics/20"
+	 * @param extras The {@link Bundle} which contains the extras to be assigned to the generated {@link Intent}
+	 * @return Whether a route was found and opened; false if an interceptor cancelled it, or if it was dropped
+	 *         as a duplicate open
+	 */
+	public boolean tryOpen(String url, Bundle extras) {
+		return this.tryOpen(url, extras, this._context);
+	}
+
+	/**
+	 * Open a map'd URL if it has a route, without throwing a {@link RouteNotFoundException} if it doesn't
+	 * @param url The URL; for example, "users/16" or "groups/5/topics/20"
+	 * @param context The context which is used in the generated {@link Intent}
+	 * @return Whether a route was found and opened; false if an interceptor cancelled it, or if it was dropped
+	 *         as a duplicate open
+	 */
+	public boolean tryOpen(String url, Context context) {
+		return this.tryOpen(url, null, context);
+	}
+
+	/**
+	 * Open a map'd URL if it has a route, without throwing a {@link RouteNotFoundException} if it doesn't
+	 * @param url The URL; for example, "users/16" or "groups/5/topics/20"
+	 * @param extras The {@link Bundle} which contains the extras to be assigned to the generated {@link Intent}
+	 * @param context The context which is used in the generated {@link Intent}
+	 * @return Whether a route was found and opened; false if an interceptor cancelled it, or if it was dropped
+	 *         as a duplicate open
+	 */
+	public boolean tryOpen(String url, Bundle extras, Context context) {
+		if (context == null) {
+			throw new ContextNotProvided(
+					"You need to supply a context for Router "
+							+ this.toString());
+		}
+		return this.openUnlessDuplicate(url, extras, context, false);
+	}
+
+	/*
+	 * Resolves and opens url, unless an identical open was made within the duplicate open window; per URL,
+	 * duplicates are dropped before resolving, and per route, right after. Returns false if the open was dropped
+	 * as a duplicate, if an interceptor cancelled it, or if url, or the URL an interceptor replaced it with, has
+	 * no route and notFoundThrows is false.
+	 */
+	private boolean openUnlessDuplicate(String url, Bundle extras, Context context, boolean notFoundThrows) {
+		long startMillis = this._navigations.now();
+		OpenCoalescer coalescer = this._coalescer;
+		boolean perRoute = coalescer.isPerRoute();
+		if (!perRoute && coalescer.isDuplicate(url)) {
+			this.onDuplicateOpen(url);
+			return false;
+		}
+		String key = perRoute ? null : url;
+		TraceBackend trace = this._traceBackend;
+		trace.beginSection(TRACE_OPEN);
+		try {
+			RouteMatch<RouterOptions> params;
+			trace.beginSection(TRACE_RESOLVE);
+			try {
+				params = notFoundThrows ? this.paramsForUrl(url) : this.tryResolve(url);
+			} finally {
+				trace.endSection();
+			}
+			if (params == null) {
+				if (key != null) {
+					coalescer.forget(key);
+				}
+				return false;
+			}
+			if (perRoute) {
+				if (coalescer.isDuplicate(params.getFormat())) {
+					this.onDuplicateOpen(url);
+					return false;
+				}
+				key = params.getFormat();
+			}
+			Interception interception = this.intercept(url, params, extras, context, notFoundThrows);
+			if (interception == Interception.CANCEL || interception == Interception.NOT_FOUND) {
+				// Nothing was opened, so a retry (say, after signing in) isn't a duplicate
+				coalescer.forget(key);
+				return false;
+			}
+			if (interception != Interception.CONTINUE) {
+				url = interception.url;
+				params = interception.match;
+			}
+			this.open(url, params, extras, context, startMillis);
+			return true;
+		} catch (RuntimeException e) {
+			if (key != null) {
+				coalescer.forget(key);
+			}
+			throw e;
+		} finally {
+			trace.endSection();
+		}
+	}
 
-			options.getCallback().run(routeContext);
+	/*
+	 * Runs the router's and then the route's interceptors for a resolved URL. Returns CONTINUE to open the URL as
+	 * it is, CANCEL to open nothing, or a replacement holding the URL and match to open instead. A replacement URL
+	 * without a route throws a RouteNotFoundException, or returns NOT_FOUND if notFoundThrows is false.
+	 */
+	private Interception intercept(String url, RouteMatch<RouterOptions> params, Bundle extras, Context context,
+			boolean notFoundThrows) {
+		Interceptor[] global = this._interceptors;
+		Interceptor[] route = params.getTarget()._interceptors;
+		if (global.length == 0 && route.length == 0) {
+			return Interception.CONTINUE;
+		}
+
+		TraceBackend trace = this._traceBackend;
+		trace.beginSection(TRACE_INTERCEPT);
+		try {
+			boolean replaced = false;
+			int interceptions = 0;
+			int index = 0;
+			while (index < global.length + route.length) {
+				Interceptor interceptor = index < global.length ? global[index] : route[index - global.length];
+				index++;
+				Interception interception = interceptor.intercept(url, params, extras, context);
+				if (interception == null || interception.kind == Interception.KIND_CONTINUE) {
+					continue;
+				}
+				if (interception.kind == Interception.KIND_CANCEL) {
+					return Interception.CANCEL;
+				}
+				if (++interceptions > MAX_INTERCEPTIONS) {
+					throw new IllegalStateException("Gave up opening " + url + " after " + MAX_INTERCEPTIONS
+							+ " rewrites and redirects");
+				}
+				url = interception.url;
+				RouteMatch<RouterOptions> replacement = notFoundThrows ? this.paramsForUrl(url) : this.tryResolve(url);
+				if (replacement == null) {
+					return Interception.NOT_FOUND;
+				}
+				boolean sameRoute = replacement.getTarget() == params.getTarget()
+						&& replacement.getFormat().equals(params.getFormat());
+				params = replacement;
+				replaced = true;
+				if (interception.kind == Interception.KIND_REDIRECT || !sameRoute) {
+					// Start over with the new route's chain, so a rewrite can't get past another route's checks
+					global = this._interceptors;
+					route = params.getTarget()._interceptors;
+					index = 0;
+				}
+			}
+			return replaced ? new Interception(Interception.KIND_REPLACED, url, params) : Interception.CONTINUE;
+		} finally {
+			trace.endSection();
+		}
+	}
+
+	private void onDuplicateOpen(String url) {
+		RouterMetricsListener listener = this._metricsListener;
+		if (listener != null) {
+			listener.onDuplicateOpen(url);
+		}
+	}
+
+	/*
+	 * Dispatches a resolved URL; startMillis is when it was opened, for latency tracking.
+	 */
+	private void open(String url, RouteMatch<RouterOptions> params, Bundle extras, Context context, long startMillis) {
+		this._profile.record(url);
+		RouterOptions options = params.getTarget();
+		RouterMetricsListener listener = this._metricsListener;
+		TraceBackend trace = this._traceBackend;
+		if (options.getCallback() != null) {
+			this.runCallback(url, params, extras, context, startMillis, null);
 			return;
 		}
 
-		Intent intent = this.intentFor(context, params);
-		if (intent == null) {
-			// Means the options weren't opening a new activity
+		long startTime = listener == null ? 0 : System.nanoTime();
+		long navigationId = this._navigations.start(params.getFormat(), startMillis);
+		if (this.showFragment(url, params, extras, context, navigationId)) {
+			if (listener != null) {
+				listener.onDispatch(url, params.getFormat(), false, System.nanoTime() - startTime);
+			}
 			return;
 		}
-		if (extras != null) {
-			intent.putExtras(extras);
+		checkOpenClass(params);
+
+		Intent intent;
+		trace.beginSection(TRACE_BUILD_INTENT);
+		try {
+			intent = this.intentFor(context, params);
+			if (extras != null) {
+				intent.putExtras(extras);
+			}
+			if (navigationId != 0) {
+				intent.putExtra(EXTRA_NAVIGATION_ID, navigationId);
+			}
+		} finally {
+			trace.endSection();
 		}
-		context.startActivity(intent);
+		trace.beginSection(TRACE_START_ACTIVITY);
+		try {
+			context.startActivity(intent);
+		} finally {
+			trace.endSection();
+		}
+		if (listener != null) {
+			listener.onDispatch(url, params.getFormat(), false, System.nanoTime() - startTime);
+		}
+	}
+
+	/*
+	 * Runs a callback route. An AsyncRouterCallback opened with openAsync is given future to complete, and its
+	 * latency and dispatch are recorded once it completes; any other callback's are recorded when it returns.
+	 */
+	private void runCallback(String url, RouteMatch<RouterOptions> params, Bundle extras, Context context,
+			long startMillis, OpenFuture future) {
+		RouterCallback callback = params.getTarget().getCallback();
+		RouteContext routeContext = new RouteContext(params, extras, context);
+		long startTime = this._metricsListener == null ? 0 : System.nanoTime();
+		TraceBackend trace = this._traceBackend;
+		trace.beginSection(TRACE_CALLBACK);
+		try {
+			if (future != null) {
+				future.dispatching(url, startMillis, startTime);
+				((AsyncRouterCallback) callback).run(routeContext, new RouteCompletion(future));
+			} else {
+				callback.run(routeContext);
+			}
+		} finally {
+			trace.endSection();
+		}
+		if (future == null) {
+			this.callbackDispatched(url, params.getFormat(), startMillis, startTime);
+		}
+	}
+
+	private void callbackDispatched(String url, String format, long startMillis, long startTime) {
+		this._navigations.finish(format, startMillis);
+		RouterMetricsListener listener = this._metricsListener;
+		if (listener != null) {
+			listener.onDispatch(url, format, true, System.nanoTime() - startTime);
+		}
+	}
+
+	/*
+	 * A fragment route may have no Activity to fall back to.
+	 */
+	private static void checkOpenClass(RouteMatch<RouterOptions> params) {
+		if (params.getTarget().getOpenClassName() == null) {
+			throw new IllegalStateException("Route " + params.getFormat()
+					+ " has no Activity to open outside a FragmentHost; set an open class on its RouterOptions");
+		}
+	}
+
+	/*
+	 * Shows the route's fragment if it has one and context is a host willing to show it; Fragments need Honeycomb.
+	 */
+	private boolean showFragment(String url, RouteMatch<RouterOptions> params, Bundle extras, Context context,
+			long navigationId) {
+		String fragmentClassName = params.getTarget().getFragmentClassName();
+		if (fragmentClassName == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB
+				|| !(context instanceof FragmentHost) || !(context instanceof Activity)) {
+			return false;
+		}
+		Activity host = (Activity) context;
+		int containerId = ((FragmentHost) context).getFragmentContainerId(params);
+		if (containerId == 0 || host.isFinishing()) {
+			return false;
+		}
+		TraceBackend trace = this._traceBackend;
+		trace.beginSection(TRACE_SHOW_FRAGMENT);
+		try {
+			Bundle arguments = this.argumentsFor(params, extras);
+			if (navigationId != 0) {
+				arguments.putLong(EXTRA_NAVIGATION_ID, navigationId);
+			}
+			Fragment fragment = Fragment.instantiate(host, fragmentClassName, arguments);
+			host.getFragmentManager().beginTransaction()
+					.replace(containerId, fragment)
+					.addToBackStack(url)
+					.commit();
+		} finally {
+			trace.endSection();
+		}
+		return true;
 	}
 
 	/*
@@ -348,32 +1576,98 @@ public class Router {
 	 * @return The {@link Intent} for the url
 	 */
 	public Intent intentFor(String url) {
-		RouterParams params = this.paramsForUrl(url);
+		RouteMatch<RouterOptions> params = this.paramsForUrl(url);
 
         return intentFor(params);
 	}
 
-    private Intent intentFor(RouterParams params) {
-        RouterOptions options = params.routerOptions;
-        Intent intent = new Intent();
-        if (options.getDefaultParams() != null) {
-            for (Entry<String, String> entry : options.getDefaultParams().entrySet()) {
-                intent.putExtra(entry.getKey(), entry.getValue());
+    private Intent intentFor(RouteMatch<RouterOptions> params) {
+        return putParams(new Intent(params.getTarget().intentTemplate(null)), params);
+    }
+
+	/**
+	 * @param url The URL; for example, "users/16" or "groups/5/topics/20"
+	 * @return The arguments a route's {@link Fragment} is given for the url: the same values as the extras of
+	 * {@link #intentFor(String)}
+	 */
+	public Bundle argumentsFor(String url) {
+		return this.argumentsFor(this.paramsForUrl(url), null);
+	}
+
+	/*
+	 * Puts the same values as an Intent's extras, in the same order, straight into a Bundle: the default params,
+	 * the path params, the query params and then extras.
+	 */
+	private Bundle argumentsFor(RouteMatch<RouterOptions> params, Bundle extras) {
+		Bundle arguments = new Bundle();
+		Map<String, String> defaultParams = params.getTarget().getDefaultParams();
+		if (defaultParams != null) {
+			for (Entry<String, String> entry : defaultParams.entrySet()) {
+				arguments.putString(entry.getKey(), entry.getValue());
+			}
+		}
+		boolean typed = params.hasTypedParams();
+		for (int slot = 0; slot < params.pathParamCount(); slot++) {
+			Object value = typed ? params.typedPathParamAt(slot) : params.pathParamAt(slot);
+			if (value instanceof Integer) {
+				arguments.putInt(params.pathParamNameAt(slot), ((Integer) value).intValue());
+			} else if (value instanceof Long) {
+				arguments.putLong(params.pathParamNameAt(slot), ((Long) value).longValue());
+			} else {
+				arguments.putString(params.pathParamNameAt(slot), (String) value);
+			}
+		}
+		if (params.hasQuery()) {
+			ParamMap<String> query = params.decodedQueryParams();
+			for (int index = 0; index < query.count(); index++) {
+				arguments.putString(query.nameAt(index), query.valueAt(index));
+			}
+		}
+		if (extras != null) {
+			arguments.putAll(extras);
+		}
+		return arguments;
+	}
+
+    /*
+     * Puts the path params and then the query params straight from the match's arrays, so that a later
+     * pair replaces an earlier one with the same name just as in RouteMatch.getParams().
+     */
+    private static Intent putParams(Intent intent, RouteMatch<RouterOptions> params) {
+        boolean typed = params.hasTypedParams();
+        for (int slot = 0; slot < params.pathParamCount(); slot++) {
+            if (typed) {
+                putTypedExtra(intent, params.pathParamNameAt(slot), params.typedPathParamAt(slot));
+            } else {
+                intent.putExtra(params.pathParamNameAt(slot), params.pathParamAt(slot));
             }
         }
-        for (Entry<String, String> entry : params.openParams.entrySet()) {
-            intent.putExtra(entry.getKey(), entry.getValue());
+        if (params.hasQuery()) {
+            ParamMap<String> query = params.decodedQueryParams();
+            for (int index = 0; index < query.count(); index++) {
+                intent.putExtra(query.nameAt(index), query.valueAt(index));
+            }
         }
         return intent;
     }
 
+    private static void putTypedExtra(Intent intent, String key, Object value) {
+        if (value instanceof Integer) {
+            intent.putExtra(key, ((Integer) value).intValue());
+        } else if (value instanceof Long) {
+            intent.putExtra(key, ((Long) value).longValue());
+        } else {
+            intent.putExtra(key, (String) value);
+        }
+    }
+
 	/**
 	 * @param url The URL to check
 	 * @return Whether or not the URL refers to an anonymous callback function
 	 */
 	public boolean isCallbackUrl(String url) {
-		RouterParams params = this.paramsForUrl(url);
-		RouterOptions options = params.routerOptions;
+		RouteMatch<RouterOptions> params = this.paramsForUrl(url);
+		RouterOptions options = params.getTarget();
 		return options.getCallback() != null;
 	}
 
@@ -384,112 +1678,255 @@ public class Router {
 	 * @return The {@link Intent} for the url, with the correct {@link Activity} set, or null.
 	 */
 	public Intent intentFor(Context context, String url) {
-		RouterParams params = this.paramsForUrl(url);
+		RouteMatch<RouterOptions> params = this.paramsForUrl(url);
 
         return intentFor(context, params);
 	}
 
-    private Intent intentFor(Context context, RouterParams params) {
-        RouterOptions options = params.routerOptions;
+    private Intent intentFor(Context context, RouteMatch<RouterOptions> params) {
+        RouterOptions options = params.getTarget();
         if (options.getCallback() != null) {
             return null;
         }
 
-        Intent intent = intentFor(params);
-        intent.setClass(context, options.getOpenClass());
+        Intent intent = putParams(new Intent(options.intentTemplate(context)), params);
         this.addFlagsToIntent(intent, context);
         return intent;
     }
 
-	/*
-	 * Takes a url (i.e. "/users/16/hello") and breaks it into a {@link RouterParams} instance where
-	 * each of the parameters (like ":id") has been parsed.
+	/**
+	 * Resolve a URL without opening it
+	 * @param url The URL; for example, "users/16" or "groups/5/topics/20"
+	 * @return The {@link RouteMatch} for the url, holding its {@link RouterOptions} and params
 	 */
-	private RouterParams paramsForUrl(String url) {
-        final String cleanedUrl = cleanUrl(url);
+	public RouteMatch<RouterOptions> resolve(String url) {
+		return this.paramsForUrl(url);
+	}
 
-		URI parsedUri = URI.create("http://tempuri.org/" + cleanedUrl);
+	/**
+	 * Resolve a URL without opening it or throwing if it has no route; unknown URLs are remembered, so
+	 * resolving one again is cheap until another route is mapped
+	 * @param url The URL; for example, "users/16" or "groups/5/topics/20"
+	 * @return The {@link RouteMatch} for the url, or null if no route matches it
+	 */
+	public RouteMatch<RouterOptions> tryResolve(String url) {
+		return this._resolver.resolve(url, this._metricsListener);
+	}
 
-		String urlPath = parsedUri.getPath().substring(1);
+	/**
+	 * Get a reusable template for building URLs to a map'd route, the reverse of {@link #resolve(String)}
+	 * @param format The format the route was map'd with; for example, "groups/:id/topics/:topic_id"
+	 * @return The route's {@link UrlTemplate}, cached so that later calls are cheap
+	 * @throws RouteNotFoundException If no route was map'd with the format
+	 */
+	public UrlTemplate urlTemplate(String format) {
+		UrlTemplate template = this._resolver.urlTemplate(format);
+		if (template == null) {
+			throw new RouteNotFoundException("No route mapped with format " + format);
+		}
+		return template;
+	}
+
+	/**
+	 * Build a URL to a map'd route from its params; params that aren't in the format go in the query string
+	 * @param format The format the route was map'd with; for example, "users/:id{int}"
+	 * @param params A value for each of the format's params; for example, {"id" => 16}
+	 * @return The URL, percent-encoded; for example, "users/16"
+	 * @throws RouteNotFoundException If no route was map'd with the format
+	 * @throws IllegalArgumentException If a param is missing or doesn't satisfy its constraint
+	 */
+	public String urlFor(String format, Map<String, ?> params) {
+		return this.urlTemplate(format).expand(params);
+	}
+
+	/**
+	 * Build many URLs to the same map'd route, splitting up its format once
+	 * @param format The format the route was map'd with
+	 * @param params The params for each URL, as for {@link #urlFor(String, Map)}
+	 * @return The URLs, in the same order
+	 * @throws RouteNotFoundException If no route was map'd with the format
+	 * @throws IllegalArgumentException If a param is missing or doesn't satisfy its constraint
+	 */
+	public List<String> urlsFor(String format, List<? extends Map<String, ?>> params) {
+		return this.urlTemplate(format).expandAll(params);
+	}
+
+	/**
+	 * Resolve many URLs in parallel without opening them; for example, to validate a catalog of deep links
+	 * @param urls The URLs to resolve
+	 * @return The {@link RouteMatch} for each URL, in order, with null for URLs that have no route
+	 * @throws InterruptedException If the calling thread is interrupted while waiting for the results
+	 * @see RouteResolver#resolveAll(Collection, Executor)
+	 */
+	public List<RouteMatch<RouterOptions>> resolveAll(Collection<String> urls) throws InterruptedException {
+		return this._resolver.resolveAll(urls);
+	}
+
+	/**
+	 * Resolve many URLs in parallel on the given {@link Executor} without opening them
+	 * @param urls The URLs to resolve
+	 * @param executor The {@link Executor} to resolve the URLs on
+	 * @return The {@link RouteMatch} for each URL, in order, with null for URLs that have no route
+	 * @throws InterruptedException If the calling thread is interrupted while waiting for the results
+	 */
+	public List<RouteMatch<RouterOptions>> resolveAll(Collection<String> urls, Executor executor)
+			throws InterruptedException {
+		return this._resolver.resolveAll(urls, executor);
+	}
 
-		if (this._cachedRoutes.get(cleanedUrl) != null) {
-			return this._cachedRoutes.get(cleanedUrl);
+	/**
+	 * @return The {@link RouteResolver} that matches URLs for this router
+	 */
+	public RouteResolver<RouterOptions> getResolver() {
+		return this._resolver;
+	}
+
+	/*
+	 * Takes a url (i.e. "/users/16/hello") and resolves it to a {@link RouteMatch} where
+	 * each of the parameters (like ":id") has been parsed.
+	 */
+	private RouteMatch<RouterOptions> paramsForUrl(String url) {
+		RouteMatch<RouterOptions> match = this.tryResolve(url);
+		if (match == null) {
+			throw new RouteNotFoundException("No route found for url " + url);
 		}
+		return match;
+	}
 
-		String[] givenParts = urlPath.split("/");
+	/*
+	 * The result of openAsync; completed by the router, or by an AsyncRouterCallback through a RouteCompletion.
+	 * Only the first of completing, failing and cancelling takes effect.
+	 */
+	private class OpenFuture implements Future<RouteMatch<RouterOptions>> {
+		private static final int PENDING = 0;
+		private static final int COMPLETED = 1;
+		private static final int FAILED = 2;
+		private static final int CANCELLED = 3;
+
+		private final String _url;
+		private final OpenListener _listener;
+		private final CountDownLatch _done = new CountDownLatch(1);
+		private volatile int _state = PENDING;
+		private Throwable _error;
+		volatile RouteMatch<RouterOptions> match;
+		// Set when an AsyncRouterCallback is run, so that its completion is recorded like a synchronous dispatch;
+		// the start times are written before the volatile URL
+		private long _callbackStartMillis;
+		private long _callbackStartTime;
+		private volatile String _callbackUrl;
+
+		OpenFuture(String url, OpenListener listener) {
+			this._url = url;
+			this._listener = listener;
+		}
 
-		RouterParams routerParams = null;
-		for (Entry<String, RouterOptions> entry : this._routes.entrySet()) {
-			String routerUrl = cleanUrl(entry.getKey());
-			RouterOptions routerOptions = entry.getValue();
-			String[] routerParts = routerUrl.split("/");
+		void dispatching(String url, long startMillis, long startTime) {
+			this._callbackStartMillis = startMillis;
+			this._callbackStartTime = startTime;
+			this._callbackUrl = url;
+		}
 
-			if (routerParts.length != givenParts.length) {
-				continue;
+		void complete() {
+			if (!this.finish(COMPLETED, null)) {
+				return;
 			}
+			String callbackUrl = this._callbackUrl;
+			if (callbackUrl != null) {
+				Router.this.callbackDispatched(callbackUrl, this.match.getFormat(), this._callbackStartMillis,
+						this._callbackStartTime);
+			}
+			this.notifyListener();
+		}
 
-			Map<String, String> givenParams = urlToParamsMap(givenParts, routerParts);
-			if (givenParams == null) {
-				continue;
+		void fail(Throwable error) {
+			if (this.finish(FAILED, error)) {
+				this.notifyListener();
 			}
+		}
 
-			routerParams = new RouterParams();
-			routerParams.openParams = givenParams;
-			routerParams.routerOptions = routerOptions;
-			break;
+		private synchronized boolean finish(int state, Throwable error) {
+			if (this._state != PENDING) {
+				return false;
+			}
+			this._error = error;
+			this._state = state;
+			this._done.countDown();
+			return true;
 		}
 
-		if (routerParams == null) {
-			throw new RouteNotFoundException("No route found for url " + url);
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			return this.finish(CANCELLED, null);
 		}
 
-		List<NameValuePair> query = URLEncodedUtils.parse(parsedUri, "utf-8");
+		@Override
+		public boolean isCancelled() {
+			return this._state == CANCELLED;
+		}
 
-		for (NameValuePair pair : query) {
-			routerParams.openParams.put(pair.getName(), pair.getValue());
+		@Override
+		public boolean isDone() {
+			return this._state != PENDING;
 		}
 
-		this._cachedRoutes.put(cleanedUrl, routerParams);
-		return routerParams;
-	}
+		@Override
+		public RouteMatch<RouterOptions> get() throws InterruptedException, ExecutionException {
+			this._done.await();
+			return this.result();
+		}
 
-	/**
-	 *
-	 * @param givenUrlSegments An array representing the URL path attempting to be opened (i.e. ["users", "42"])
-	 * @param routerUrlSegments An array representing a possible URL match for the router (i.e. ["users", ":id"])
-	 * @return A map of URL parameters if it's a match (i.e. {"id" => "42"}) or null if there is no match
-	 */
-	private Map<String, String> urlToParamsMap(String[] givenUrlSegments, String[] routerUrlSegments) {
-		Map<String, String> formatParams = new HashMap<String, String>();
-		for (int index = 0; index < routerUrlSegments.length; index++) {
-			String routerPart = routerUrlSegments[index];
-			String givenPart = givenUrlSegments[index];
-
-			if (routerPart.charAt(0) == ':') {
-				String key = routerPart.substring(1, routerPart.length());
-				formatParams.put(key, givenPart);
-				continue;
+		@Override
+		public RouteMatch<RouterOptions> get(long timeout, TimeUnit unit)
+				throws InterruptedException, ExecutionException, TimeoutException {
+			if (!this._done.await(timeout, unit)) {
+				throw new TimeoutException("Opening " + this._url + " timed out");
 			}
+			return this.result();
+		}
 
-			if (!routerPart.equals(givenPart)) {
-				return null;
+		private synchronized RouteMatch<RouterOptions> result() throws ExecutionException {
+			if (this._state == CANCELLED) {
+				throw new CancellationException("Opening " + this._url + " was cancelled");
 			}
+			if (this._state == FAILED) {
+				throw new ExecutionException(this._error);
+			}
+			return this.match;
 		}
 
-		return formatParams;
+		private void notifyListener() {
+			if (this._listener == null) {
+				return;
+			}
+			Router.this.mainThreadExecutor().execute(new Runnable() {
+				@Override
+				public void run() {
+					OpenFuture future = OpenFuture.this;
+					if (future._state == COMPLETED) {
+						future._listener.onOpen(future._url, future.match);
+					} else {
+						future._listener.onError(future._url, future._error);
+					}
+				}
+			});
+		}
 	}
 
-    /**
-     * Clean up url
-     * @param url
-     * @return cleaned url
-     */
-    private String cleanUrl(String url) {
-        if (url.startsWith("/")) {
-            return url.substring(1, url.length());
-        }
-        return url;
-    }
+	/*
+	 * Runs tasks inline on the main thread and posts them to the main looper from any other thread.
+	 */
+	private static class MainThreadExecutor implements Executor {
+		private final Handler _handler = new Handler(Looper.getMainLooper());
+
+		@Override
+		public void execute(Runnable runnable) {
+			if (Looper.myLooper() == Looper.getMainLooper()) {
+				runnable.run();
+			} else {
+				this._handler.post(runnable);
+			}
+		}
+	}
 
 	/**
 	 * Thrown if a given route is not found.
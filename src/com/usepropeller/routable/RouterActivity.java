@@ -1,8 +1,10 @@
 package com.usepropeller.routable;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import android.app.Activity;
 import android.content.Intent;
-import android.net.Uri;
 import android.os.Bundle;
 
 public class RouterActivity extends Activity {
@@ -10,25 +12,39 @@ public class RouterActivity extends Activity {
 	public void onCreate(Bundle savedInstanceState) {
 	    super.onCreate(savedInstanceState);
 
+	    Router router = Router.sharedRouter();
+	    TraceBackend trace = router.getTraceBackend();
+	    trace.beginSection(Router.TRACE_ROUTER_ACTIVITY);
+	    try {
+		    this.openLinkedUrl(router);
+	    } finally {
+		    trace.endSection();
+	    }
+
+	    setResult(RESULT_OK, null);
+	    finish();
+	}
+
+	private void openLinkedUrl(Router router) {
 	    Intent intent = getIntent();
 	    String url;
+	    List<String> urls = new ArrayList<String>(2);
 
 	    Bundle extras = intent.getExtras();
-	    if (extras.containsKey("url")) {
+	    if (extras != null && extras.containsKey("url")) {
 	    	url = extras.getString("url");
 	    }
 	    else {
-		    Uri data = intent.getData();
-		    String protocol = data.getScheme() + "://";
-		    url = data.toString().replaceFirst(protocol, "");
-		    if (Router.sharedRouter().getRootUrl() != null) {
-			    Router.sharedRouter().open(Router.sharedRouter().getRootUrl());
+		    // The router matches the link against the routes for its scheme or host, or strips the scheme
+		    url = intent.getData().toString();
+		    if (router.getRootUrl() != null) {
+			    urls.add(router.getRootUrl());
 		    }
 	    }
 
-	    Router.sharedRouter().open(url);
-
-	    setResult(RESULT_OK, null);
-	    finish();
+	    urls.add(url);
+	    // Launch the root and the linked screen in one transition; links from outside the app may not have a
+	    // route, so URLs without one are left out rather than crashing
+	    router.tryOpenStack(urls, router.getContext());
 	}
 }
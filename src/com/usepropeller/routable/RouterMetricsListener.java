@@ -0,0 +1,54 @@
+package com.usepropeller.routable;
+
+/**
+ * Receives timings and outcomes of a {@link Router}'s resolutions and opens, tagged with the matched
+ * route format, so that hot routes, cache effectiveness and missing routes can be monitored in the field.
+ * Install one with {@link Router#setMetricsListener(RouterMetricsListener)}; override only the callbacks
+ * you need. A router without a listener skips all timing.
+ *
+ * Callbacks run synchronously on the thread resolving or opening the URL, so they should be cheap.
+ */
+public abstract class RouterMetricsListener {
+	/**
+	 * Called before a URL is resolved
+	 * @param url The URL as given to the router
+	 */
+	public void onResolveStart(String url) {
+	}
+
+	/**
+	 * Called after a URL has been resolved to a route
+	 * @param url The URL as given to the router
+	 * @param format The format of the matched route; for example, "users/:id"
+	 * @param cacheHit Whether the match came from the resolution cache
+	 * @param durationNanos How long resolution took
+	 */
+	public void onResolveEnd(String url, String format, boolean cacheHit, long durationNanos) {
+	}
+
+	/**
+	 * Called when no route matches a URL
+	 * @param url The URL as given to the router
+	 * @param durationNanos How long the failed resolution took
+	 */
+	public void onRouteNotFound(String url, long durationNanos) {
+	}
+
+	/**
+	 * Called after a resolved URL has been opened
+	 * @param url The URL as given to the router
+	 * @param format The format of the matched route
+	 * @param callback Whether the route ran a {@link Router.RouterCallback} rather than starting an Activity
+	 * or showing a Fragment
+	 * @param durationNanos How long the callback, startActivity or fragment transaction took
+	 */
+	public void onDispatch(String url, String format, boolean callback, long durationNanos) {
+	}
+
+	/**
+	 * Called when an open is dropped because an identical one was made within the router's duplicate open window
+	 * @param url The URL as given to the router
+	 */
+	public void onDuplicateOpen(String url) {
+	}
+}
@@ -0,0 +1,107 @@
+package com.usepropeller.routable;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.os.Build;
+import android.os.Trace;
+
+/**
+ * Receives the trace sections a {@link Router} marks around each phase of opening a URL, such as
+ * "Routable.resolve" and "Routable.startActivity". Sections nest, and each is ended on the thread
+ * that began it. Section names are constants, so tracing allocates nothing.
+ *
+ * {@link #SYSTEM}, the default, writes them to {@link Trace} so that they appear in systrace on
+ * Jelly Bean MR2 and later; use {@link #NONE} or {@link #logging(PrintStream)} off Android.
+ */
+public abstract class TraceBackend {
+	/**
+	 * Writes sections to {@link Trace}, or drops them before Jelly Bean MR2
+	 */
+	public static final TraceBackend SYSTEM = new SystemTraceBackend();
+
+	/**
+	 * Drops every section
+	 */
+	public static final TraceBackend NONE = new TraceBackend() {
+		@Override
+		public void beginSection(String name) {
+		}
+
+		@Override
+		public void endSection() {
+		}
+	};
+
+	/**
+	 * @param out The stream to print each section's name and duration to as it ends; for example, System.out in tests
+	 * @return A backend that prints sections, indented by nesting
+	 */
+	public static TraceBackend logging(PrintStream out) {
+		return new LoggingTraceBackend(out);
+	}
+
+	public abstract void beginSection(String name);
+
+	/**
+	 * Ends the section most recently begun on the calling thread
+	 */
+	public abstract void endSection();
+
+	private static class SystemTraceBackend extends TraceBackend {
+		private static final boolean AVAILABLE = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+
+		@Override
+		public void beginSection(String name) {
+			if (AVAILABLE) {
+				Trace.beginSection(name);
+			}
+		}
+
+		@Override
+		public void endSection() {
+			if (AVAILABLE) {
+				Trace.endSection();
+			}
+		}
+	}
+
+	private static class LoggingTraceBackend extends TraceBackend {
+		private final PrintStream _out;
+		// The open sections on each thread, alternating names and start times
+		private final ThreadLocal<List<Object>> _sections = new ThreadLocal<List<Object>>() {
+			@Override
+			protected List<Object> initialValue() {
+				return new ArrayList<Object>();
+			}
+		};
+
+		LoggingTraceBackend(PrintStream out) {
+			this._out = out;
+		}
+
+		@Override
+		public void beginSection(String name) {
+			List<Object> sections = this._sections.get();
+			sections.add(name);
+			sections.add(Long.valueOf(System.nanoTime()));
+		}
+
+		@Override
+		public void endSection() {
+			List<Object> sections = this._sections.get();
+			if (sections.isEmpty()) {
+				return;
+			}
+			long nanos = System.nanoTime() - ((Long) sections.remove(sections.size() - 1)).longValue();
+			String name = (String) sections.remove(sections.size() - 1);
+			StringBuilder line = new StringBuilder();
+			for (int depth = 0; depth < sections.size() / 2; depth++) {
+				line.append("  ");
+			}
+			line.append(name).append(": ").append(nanos / 1000).append(" us");
+			this._out.println(line);
+		}
+	}
+}
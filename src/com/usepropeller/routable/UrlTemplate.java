@@ -0,0 +1,249 @@
+package com.usepropeller.routable;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds URLs for a route format, the reverse of resolving them: "groups/:id/topics/:topic_id" with
+ * {"id" => 5, "topic_id" => 20} becomes "groups/5/topics/20". The format is split up once, so that each URL costs
+ * one pass over its pieces. Get one for a mapped route with {@link Router#urlTemplate(String)} or
+ * {@link RouteResolver#urlTemplate(String)}.
+ *
+ * Param values are percent-encoded, so a value with a "/" stays one segment, and must satisfy their
+ * constraints, so a URL built for a route always resolves to it. Params that aren't in the format go in the
+ * query string. Templates are immutable and can be shared between threads; a {@link Builder} can't.
+ */
+public final class UrlTemplate {
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+	private final String _format;
+	// The scheme, host and leading slash of the format, if it has them; for example, "myapp://"
+	private final String _prefix;
+	// Indexed by segment: the segment as written, or null for params
+	private final String[] _literals;
+	// Indexed by segment: the param's slot, or -1 for static segments
+	private final int[] _slots;
+	// Indexed by slot
+	private final String[] _slotNames;
+	private final RoutePattern.Constraint[] _constraints;
+
+	UrlTemplate(RoutePattern pattern) {
+		String path = RouteResolver.pathOf(pattern.format);
+		String prefix = pattern.format.substring(0, pattern.format.length() - path.length());
+		this._format = pattern.format;
+		this._prefix = path.startsWith("/") ? prefix + "/" : prefix;
+		this._literals = new String[pattern.segments.length];
+		this._slots = new int[pattern.segments.length];
+		this._slotNames = pattern.slotNames();
+		this._constraints = new RoutePattern.Constraint[this._slotNames.length];
+		int slot = 0;
+		for (int index = 0; index < pattern.segments.length; index++) {
+			if (pattern.isParam(index)) {
+				this._constraints[slot] = pattern.constraint(index);
+				this._slots[index] = slot++;
+			} else {
+				this._literals[index] = pattern.segments[index];
+				this._slots[index] = -1;
+			}
+		}
+	}
+
+	/**
+	 * Compile a template for a format without checking that any router maps it
+	 * @param format The URL format; for example, "users/:id{int}" or "myapp://users/:id"
+	 * @throws IllegalArgumentException If a param's constraint is invalid
+	 */
+	public static UrlTemplate compile(String format) {
+		return new UrlTemplate(RoutePattern.compile(format, RouteResolver.pathOf(format)));
+	}
+
+	public String getFormat() {
+		return this._format;
+	}
+
+	/**
+	 * @return The names of the format's params, in order
+	 */
+	public List<String> getParamNames() {
+		List<String> names = new ArrayList<String>(this._slotNames.length);
+		for (String name : this._slotNames) {
+			names.add(name);
+		}
+		return names;
+	}
+
+	/**
+	 * @param params A value for each of the format's params, and any query params; values are converted with
+	 * toString(), and a null query value adds the name alone
+	 * @return The URL; for example, "users/16?ref=feed"
+	 * @throws IllegalArgumentException If a param is missing or doesn't satisfy its constraint
+	 */
+	public String expand(Map<String, ?> params) {
+		Builder builder = this.builder();
+		for (Map.Entry<String, ?> param : params.entrySet()) {
+			builder.set(param.getKey(), param.getValue());
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Build many URLs for the format with one {@link Builder}
+	 * @param params The params for each URL, as for {@link #expand(Map)}
+	 * @return The URLs, in the same order
+	 * @throws IllegalArgumentException If a param is missing or doesn't satisfy its constraint
+	 */
+	public List<String> expandAll(List<? extends Map<String, ?>> params) {
+		List<String> urls = new ArrayList<String>(params.size());
+		Builder builder = this.builder();
+		for (Map<String, ?> urlParams : params) {
+			for (Map.Entry<String, ?> param : urlParams.entrySet()) {
+				builder.set(param.getKey(), param.getValue());
+			}
+			urls.add(builder.build());
+		}
+		return urls;
+	}
+
+	/**
+	 * @return A new {@link Builder}, which can be reused for any number of URLs
+	 */
+	public Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * Collects the params for one URL at a time. {@link #build()} starts it afresh, keeping its buffers, so that
+	 * building another URL allocates little besides the URL itself.
+	 *
+	 * <pre>
+	 * UrlTemplate.Builder builder = router.urlTemplate("groups/:id/topics/:topic_id").builder();
+	 * for (Topic topic : topics) {
+	 *     links.add(builder.set("id", topic.groupId).set("topic_id", topic.id).build());
+	 * }
+	 * </pre>
+	 */
+	public final class Builder {
+		private final Object[] _values = new Object[UrlTemplate.this._slotNames.length];
+		// Alternating names and values, in the order they were set
+		private final List<Object> _query = new ArrayList<Object>();
+		private final StringBuilder _url = new StringBuilder();
+
+		private Builder() {
+		}
+
+		/**
+		 * @param name A param in the format, or else a query param; a query param set twice appears twice
+		 * @param value The value, converted with toString(); null unsets a param in the format, or adds a query
+		 * param's name alone
+		 * @return This builder
+		 */
+		public Builder set(String name, Object value) {
+			String[] slotNames = UrlTemplate.this._slotNames;
+			for (int slot = 0; slot < slotNames.length; slot++) {
+				if (slotNames[slot].equals(name)) {
+					this._values[slot] = value;
+					return this;
+				}
+			}
+			this._query.add(name);
+			this._query.add(value);
+			return this;
+		}
+
+		/**
+		 * @return The URL, after which the builder is empty again
+		 * @throws IllegalArgumentException If a param is missing or doesn't satisfy its constraint, in which case the
+		 * builder is emptied too
+		 */
+		public String build() {
+			UrlTemplate template = UrlTemplate.this;
+			StringBuilder url = this._url;
+			try {
+				url.append(template._prefix);
+				for (int index = 0; index < template._literals.length; index++) {
+					if (index > 0) {
+						url.append('/');
+					}
+					int slot = template._slots[index];
+					if (slot < 0) {
+						url.append(template._literals[index]);
+						continue;
+					}
+					if (this._values[slot] == null) {
+						throw new IllegalArgumentException("Missing param " + template._slotNames[slot] + " for route "
+								+ template._format);
+					}
+					String value = this._values[slot].toString();
+					RoutePattern.Constraint constraint = template._constraints[slot];
+					if (constraint != null && !constraint.matches(value)) {
+						throw new IllegalArgumentException("Param " + template._slotNames[slot] + " = \"" + value
+								+ "\" doesn't satisfy {" + constraint.getSource() + "} in route " + template._format);
+					}
+					encode(value, url);
+				}
+				for (int index = 0; index < this._query.size(); index += 2) {
+					url.append(index == 0 ? '?' : '&');
+					encode(this._query.get(index).toString(), url);
+					Object value = this._query.get(index + 1);
+					if (value != null) {
+						url.append('=');
+						encode(value.toString(), url);
+					}
+				}
+				return url.toString();
+			} finally {
+				url.setLength(0);
+				this._query.clear();
+				for (int slot = 0; slot < this._values.length; slot++) {
+					this._values[slot] = null;
+				}
+			}
+		}
+	}
+
+	/*
+	 * Appends value with everything but unreserved characters percent-encoded as UTF-8; a space is "%20",
+	 * which decodes to a space in both paths and queries.
+	 */
+	static void encode(String value, StringBuilder out) {
+		int length = value.length();
+		for (int index = 0; index < length; index++) {
+			char c = value.charAt(index);
+			if (c >= 0x80) {
+				// Encode the rest of the value as UTF-8 bytes in one go, since characters may span several
+				for (byte b : utf8(value.substring(index))) {
+					if (b >= 0 && isUnreserved((char) b)) {
+						out.append((char) b);
+					} else {
+						appendEscape(b & 0xFF, out);
+					}
+				}
+				return;
+			}
+			if (isUnreserved(c)) {
+				out.append(c);
+			} else {
+				appendEscape(c, out);
+			}
+		}
+	}
+
+	private static boolean isUnreserved(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+				|| c == '-' || c == '.' || c == '_' || c == '~';
+	}
+
+	private static void appendEscape(int b, StringBuilder out) {
+		out.append('%').append(HEX[b >> 4]).append(HEX[b & 0xF]);
+	}
+
+	private static byte[] utf8(String value) {
+		try {
+			return value.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package com.usepropeller.routable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Splits a router URL (i.e. "users/16?ref=feed#top") into decoded path segments and its
+ * query string in a single pass over the string, without building an intermediate URI.
+ * The query is left encoded for a {@link QueryParamMap} to decode on demand.
+ *
+ * Path segments are percent-decoded; query names and values are form-decoded, so "+" is a space.
+ * Malformed escapes are kept as they appear in the URL.
+ */
+class UrlTokenizer {
+	private final String _url;
+	private final int _pathEnd;
+	private final int _queryEnd;
+
+	/**
+	 * @param url A URL without a leading slash, as produced by the router's cleanUrl
+	 */
+	UrlTokenizer(String url) {
+		this._url = url;
+		int pathEnd = url.length();
+		int queryEnd = url.length();
+		for (int index = 0; index < url.length(); index++) {
+			char c = url.charAt(index);
+			if (c == '?' && pathEnd == url.length()) {
+				pathEnd = index;
+			} else if (c == '#') {
+				queryEnd = index;
+				if (pathEnd == url.length()) {
+					pathEnd = index;
+				}
+				break;
+			}
+		}
+		this._pathEnd = pathEnd;
+		this._queryEnd = queryEnd;
+	}
+
+	/**
+	 * @return The decoded path segments; trailing empty segments are dropped, like {@link String#split(String)}
+	 */
+	String[] pathSegments() {
+		int end = this._pathEnd;
+		int count = 1;
+		for (int index = 0; index < end; index++) {
+			if (this._url.charAt(index) == '/') {
+				count++;
+			}
+		}
+		if (count == 1) {
+			return new String[] { decode(this._url, 0, end, false) };
+		}
+		while (count > 0 && end > 0 && this._url.charAt(end - 1) == '/') {
+			end--;
+			count--;
+		}
+		if (end == 0) {
+			return new String[0];
+		}
+
+		String[] segments = new String[count];
+		int start = 0;
+		int segment = 0;
+		for (int index = 0; index <= end; index++) {
+			if (index == end || this._url.charAt(index) == '/') {
+				segments[segment++] = decode(this._url, start, index, false);
+				start = index + 1;
+			}
+		}
+		return segments;
+	}
+
+	/**
+	 * @return The query string, undecoded and without its "?" or fragment; empty if the URL has none
+	 */
+	String query() {
+		return this._pathEnd >= this._queryEnd ? "" : this._url.substring(this._pathEnd + 1, this._queryEnd);
+	}
+
+	/**
+	 * @param plusAsSpace Whether "+" decodes to a space, as it does in query strings
+	 * @return The percent-decoded substring of value between start and end
+	 */
+	static String decode(String value, int start, int end, boolean plusAsSpace) {
+		int index = start;
+		while (index < end) {
+			char c = value.charAt(index);
+			if (c == '%' || (plusAsSpace && c == '+')) {
+				break;
+			}
+			index++;
+		}
+		if (index == end) {
+			return value.substring(start, end);
+		}
+
+		StringBuilder decoded = new StringBuilder(end - start);
+		decoded.append(value, start, index);
+		ByteArrayOutputStream bytes = null;
+		while (index < end) {
+			char c = value.charAt(index);
+			if (c == '%' && isEscape(value, index, end)) {
+				if (bytes == null) {
+					bytes = new ByteArrayOutputStream(4);
+				}
+				bytes.reset();
+				while (index < end && value.charAt(index) == '%' && isEscape(value, index, end)) {
+					bytes.write((hexValue(value.charAt(index + 1)) << 4) | hexValue(value.charAt(index + 2)));
+					index += 3;
+				}
+				decoded.append(utf8(bytes));
+				continue;
+			}
+			decoded.append(plusAsSpace && c == '+' ? ' ' : c);
+			index++;
+		}
+		return decoded.toString();
+	}
+
+	private static boolean isEscape(String value, int index, int end) {
+		return index + 2 < end
+				&& hexValue(value.charAt(index + 1)) >= 0
+				&& hexValue(value.charAt(index + 2)) >= 0;
+	}
+
+	private static int hexValue(char c) {
+		if (c >= '0' && c <= '9') {
+			return c - '0';
+		}
+		if (c >= 'a' && c <= 'f') {
+			return c - 'a' + 10;
+		}
+		if (c >= 'A' && c <= 'F') {
+			return c - 'A' + 10;
+		}
+		return -1;
+	}
+
+	private static String utf8(ByteArrayOutputStream bytes) {
+		try {
+			return bytes.toString("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}